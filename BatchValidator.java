@@ -0,0 +1,594 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/** Command line tool that checks a stream of boards in parallel and prints a verdict for each one.
+ *
+ * Usage: java BatchValidator [--binary] [--threads n] [--buffers n] [--verbose] [file ...]
+ * Boards are read from each file in turn, or from standard input when no file (or "-") is given.
+ *
+ * Text input is boards in the MarupekeGrid.toString() format, one row per line, each board as many rows
+ * as it has columns. Blank lines between boards are ignored.
+ *
+ * Binary input is a sequence of records, each an unsigned 16 bit big endian row count and column count
+ * followed by the tiles in row order packed four to a byte, two bits per tile holding the Mark ordinal,
+ * first tile in the lowest bits. writeBinary() produces this format.
+ *
+ * For every board a line "index verdict illegalTiles blankTiles" is printed, the verdict being ILLEGAL,
+ * INCOMPLETE or COMPLETE exactly as illegalities() and isPuzzleComplete() would decide. With --verbose the
+ * row,column of every illegal tile follows. Lines are printed as boards finish so may be out of order.
+ * A summary with throughput is printed to standard error at the end.
+ *
+ * Memory stays bounded however long the stream is: boards are parsed into a fixed number of reusable
+ * buffers, and reading waits whenever every buffer is still being checked or printed. A board of more
+ * than MAX_TILES tiles is rejected as badly formed rather than given a buffer.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class BatchValidator {
+
+    /**
+     * The most tiles a board can have, so a corrupt header cannot make a buffer gigabytes long
+     */
+    public static final int MAX_TILES = 1 << 20;
+
+    // marker passed along the queues once the input is exhausted
+    private static final Record END = new Record();
+
+    private final int threads;
+    private final boolean binary;
+    private final boolean verbose;
+    private final PrintStream out;
+
+    // empty buffers waiting to be read into, full ones waiting to be checked, checked ones waiting to be printed
+    private final BlockingQueue<Record> free;
+    private final BlockingQueue<Record> toCheck;
+    private final BlockingQueue<Record> toPrint;
+
+    // summary, only updated by the printing thread
+    private long boards;
+    private long complete;
+    private long incomplete;
+    private long illegal;
+    private long tiles;
+
+
+    /**
+     * Constructor to create a validator
+     * @param threads The number of threads checking boards
+     * @param buffers The number of boards that can be in memory at once, at least one per thread
+     * @param binary True if the input is in the binary format, false for text
+     * @param verbose True to print the illegal tiles of every board
+     * @param out Where the verdicts are printed
+     */
+    public BatchValidator(int threads, int buffers, boolean binary, boolean verbose, PrintStream out)
+    {
+        this.threads = Math.max(1, threads);
+        this.binary = binary;
+        this.verbose = verbose;
+        this.out = out;
+
+        int bufferCount = Math.max(this.threads, buffers);
+        free = new ArrayBlockingQueue<>(bufferCount);
+        toCheck = new ArrayBlockingQueue<>(bufferCount + this.threads);
+        toPrint = new ArrayBlockingQueue<>(bufferCount + this.threads);
+
+        for(int i = 0; i < bufferCount; i++)
+        {
+            free.add(new Record());
+        }
+    }
+
+    /**
+     * Run the validator from the command line
+     * @param args The command line arguments, see the class description
+     */
+    public static void main(String[] args)
+    {
+        int threads = Runtime.getRuntime().availableProcessors();
+        int buffers = -1;
+        boolean binary = false;
+        boolean verbose = false;
+        List<String> files = new ArrayList<>();
+
+        try {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "--binary":
+                        binary = true;
+                        break;
+
+                    case "--verbose":
+                        verbose = true;
+                        break;
+
+                    case "--threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--buffers":
+                        buffers = Integer.parseInt(args[++i]);
+                        break;
+
+                    default:
+                        files.add(args[i]);
+                        break;
+                }
+            }
+        }
+        catch(NumberFormatException | ArrayIndexOutOfBoundsException argumentException)
+        {
+            System.err.println("Usage: java BatchValidator [--binary] [--threads n] [--buffers n] [--verbose] [file ...]");
+            System.exit(2);
+        }
+
+        if(files.isEmpty())
+        {
+            files.add("-");
+        }
+
+        PrintStream out = new PrintStream(new BufferedOutputStream(System.out, 1 << 16), false);
+        BatchValidator validator = new BatchValidator(threads, buffers < 0 ? threads * 4 : buffers, binary, verbose, out);
+
+        try {
+            validator.run(files);
+        }
+        catch(IOException readException)
+        {
+            out.flush();
+            System.err.println("Error: " + readException.getMessage());
+            System.exit(1);
+        }
+    }
+
+    //public methods
+
+    /**
+     * Check every board in the supplied files, printing verdicts as they finish and a summary at the end
+     * @param files The files to read, "-" for standard input
+     * @throws IOException if a file cannot be read or contains a badly formed board
+     */
+    public void run(List<String> files) throws IOException
+    {
+        long start = System.nanoTime();
+
+        List<Thread> workers = new ArrayList<>();
+        for(int i = 0; i < threads; i++)
+        {
+            Thread worker = new Thread(this::check, "batch-validator-" + i);
+            worker.setDaemon(true);
+            workers.add(worker);
+            worker.start();
+        }
+        Thread printer = new Thread(this::print, "batch-validator-printer");
+        printer.setDaemon(true);
+        printer.start();
+
+        IOException failure = null;
+        long index = 0;
+
+        try {
+            for(String file : files)
+            {
+                InputStream in = file.equals("-") ? System.in : new FileInputStream(file);
+                try {
+                    index = binary ? readBinary(new DataInputStream(new BufferedInputStream(in, 1 << 16)), index)
+                                   : readText(new BufferedInputStream(in, 1 << 16), index);
+                }
+                finally {
+                    if(in != System.in)
+                    {
+                        in.close();
+                    }
+                }
+            }
+        }
+        catch(IOException readException)
+        {
+            failure = readException;
+        }
+
+        //let the boards already read finish, then stop every thread
+        try {
+            for(int i = 0; i < threads; i++)
+            {
+                toCheck.put(END);
+            }
+            for(Thread worker : workers)
+            {
+                worker.join();
+            }
+            toPrint.put(END);
+            printer.join();
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+        out.flush();
+
+        if(failure != null)
+        {
+            throw failure;
+        }
+
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.err.printf("boards: %d complete: %d incomplete: %d illegal: %d%n", boards, complete, incomplete, illegal);
+        System.err.printf("time: %.3fs  %.0f boards/s  %.0f tiles/s  threads: %d%n",
+                seconds, boards / seconds, tiles / seconds, threads);
+    }
+
+    /**
+     * Write a grid in the binary format read with --binary
+     * @param grid The grid to write
+     * @param out The stream to write to
+     * @throws IOException if the stream cannot be written to
+     */
+    public static void writeBinary(MarupekeGrid grid, OutputStream out) throws IOException
+    {
+        DataOutputStream data = new DataOutputStream(out);
+        byte[] cells = BoardCells.snapshot(grid);
+
+        data.writeShort(grid.getSize());
+        data.writeShort(grid.getColumns());
+
+        for(int index = 0; index < cells.length; index += 4)
+        {
+            int packed = 0;
+            for(int i = 0; i < 4 && index + i < cells.length; i++)
+            {
+                packed |= cells[index + i] << (2 * i);
+            }
+            data.writeByte(packed);
+        }
+        data.flush();
+    }
+
+    //private methods
+
+    /**
+     * Read boards in the text format, parsing straight into the reusable buffers
+     * @param in The stream to read
+     * @param index The index of the first board in the stream
+     * @return The index of the board after the last one read
+     * @throws IOException if the stream cannot be read or contains a badly formed board
+     */
+    private long readText(InputStream in, long index) throws IOException
+    {
+        Record record = null;
+        int rowLength = 0;
+        int line = 1;
+        int b;
+
+        while(true)
+        {
+            b = in.read();
+
+            if(b == '\r')
+            {
+                continue;
+            }
+
+            if(b == '\n' || b == -1)
+            {
+                if(rowLength > 0)
+                {
+                    if(record.columns < 0)
+                    {
+                        record.columns = rowLength;
+                    }
+                    else if(rowLength != record.columns)
+                    {
+                        throw new IOException("line " + line + ": row has " + rowLength + " tiles, expected " + record.columns);
+                    }
+                    record.rows++;
+                    rowLength = 0;
+
+                    if(record.rows == record.columns)
+                    {
+                        record.index = index++;
+                        submit(record);
+                        record = null;
+                    }
+                }
+
+                if(b == -1)
+                {
+                    break;
+                }
+                line++;
+                continue;
+            }
+
+            byte cell = toCell(b);
+            if(cell < 0)
+            {
+                throw new IOException("line " + line + ": unexpected character '" + (char) b + "'");
+            }
+
+            if(record == null)
+            {
+                record = takeFree();
+                record.rows = 0;
+                record.columns = -1;
+            }
+            else if(record.columns >= 0 && rowLength == record.columns)
+            {
+                throw new IOException("line " + line + ": row has more than " + record.columns + " tiles");
+            }
+
+            //the first row sets the number of columns, until then it is the only row
+            int tile = record.columns < 0 ? rowLength : record.rows * record.columns + rowLength;
+            if(record.columns < 0 && (long) rowLength * rowLength >= MAX_TILES)
+            {
+                throw new IOException("line " + line + ": board has more than " + MAX_TILES + " tiles");
+            }
+            record.ensureCapacity(tile + 1);
+            record.cells[tile] = cell;
+            rowLength++;
+        }
+
+        if(record != null)
+        {
+            throw new IOException("line " + line + ": board ends after " + record.rows + " of " + record.columns + " rows");
+        }
+        return index;
+    }
+
+    /**
+     * Read boards in the binary format into the reusable buffers
+     * @param in The stream to read
+     * @param index The index of the first board in the stream
+     * @return The index of the board after the last one read
+     * @throws IOException if the stream cannot be read or a record is cut short
+     */
+    private long readBinary(DataInputStream in, long index) throws IOException
+    {
+        byte[] packed = new byte[0];
+
+        while(true)
+        {
+            int rows;
+            try {
+                rows = in.readUnsignedShort();
+            }
+            catch(EOFException endOfStream)
+            {
+                return index;
+            }
+            int columns = in.readUnsignedShort();
+            long tileCount = (long) rows * columns;
+            if(tileCount > MAX_TILES)
+            {
+                throw new IOException("board " + index + ": " + rows + "x" + columns + " has more than " + MAX_TILES + " tiles");
+            }
+            int area = (int) tileCount;
+            int packedLength = (area + 3) / 4;
+
+            if(packed.length < packedLength)
+            {
+                packed = new byte[packedLength];
+            }
+            in.readFully(packed, 0, packedLength);
+
+            Record record = takeFree();
+            record.rows = rows;
+            record.columns = columns;
+            record.index = index++;
+            record.ensureCapacity(area);
+
+            for(int tile = 0; tile < area; tile++)
+            {
+                record.cells[tile] = (byte) ((packed[tile >> 2] >> (2 * (tile & 3))) & 3);
+            }
+            submit(record);
+        }
+    }
+
+    /**
+     * Converts a character of the text format to the byte value of its tile
+     * @param c The character
+     * @return The byte value of the tile, -1 if the character is not a tile
+     */
+    private static byte toCell(int c)
+    {
+        switch (c)
+        {
+            case '_':
+                return BoardCells.BLANK;
+            case '#':
+                return BoardCells.SOLID;
+            case 'x':
+                return BoardCells.CROSS;
+            case 'o':
+                return BoardCells.NOUGHT;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Wait for an empty buffer, this is where reading slows to the pace of checking and printing
+     * @return An empty buffer
+     * @throws IOException if interrupted while waiting
+     */
+    private Record takeFree() throws IOException
+    {
+        try {
+            return free.take();
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading");
+        }
+    }
+
+    /**
+     * Hand a full buffer over to be checked
+     * @param record The buffer holding a board
+     * @throws IOException if interrupted while waiting
+     */
+    private void submit(Record record) throws IOException
+    {
+        try {
+            toCheck.put(record);
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while reading");
+        }
+    }
+
+    /**
+     * Body of each checking thread, every thread keeps its own rule and scratch space
+     */
+    private void check()
+    {
+        RunRule rule = RunRule.standard();
+        boolean[] illegalTiles = new boolean[0];
+
+        try {
+            while(true)
+            {
+                Record record = toCheck.take();
+                if(record == END)
+                {
+                    return;
+                }
+
+                int area = record.rows * record.columns;
+                if(illegalTiles.length < area)
+                {
+                    illegalTiles = new boolean[area];
+                }
+
+                record.illegalCount = rule.findIllegal(record.cells, record.rows, record.columns, illegalTiles);
+                record.blankCount = 0;
+                for(int tile = 0; tile < area; tile++)
+                {
+                    if(record.cells[tile] == BoardCells.BLANK)
+                    {
+                        record.blankCount++;
+                    }
+                }
+
+                if(verbose)
+                {
+                    record.detail.setLength(0);
+                    for(int tile = 0; tile < area; tile++)
+                    {
+                        if(illegalTiles[tile])
+                        {
+                            record.detail.append(' ').append(tile / record.columns).append(',').append(tile % record.columns);
+                        }
+                    }
+                }
+
+                toPrint.put(record);
+            }
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Body of the printing thread, prints each verdict and hands the buffer back to be reused
+     */
+    private void print()
+    {
+        try {
+            while(true)
+            {
+                Record record = toPrint.take();
+                if(record == END)
+                {
+                    return;
+                }
+
+                String verdict;
+                if(record.illegalCount > 0)
+                {
+                    verdict = "ILLEGAL";
+                    illegal++;
+                }
+                else if(record.blankCount > 0)
+                {
+                    verdict = "INCOMPLETE";
+                    incomplete++;
+                }
+                else
+                {
+                    verdict = "COMPLETE";
+                    complete++;
+                }
+                boards++;
+                tiles += record.rows * record.columns;
+
+                out.print(record.index);
+                out.print(' ');
+                out.print(verdict);
+                out.print(' ');
+                out.print(record.illegalCount);
+                out.print(' ');
+                out.print(record.blankCount);
+                if(verbose)
+                {
+                    out.print(record.detail);
+                }
+                out.print('\n');
+
+                free.put(record);
+            }
+        }
+        catch(InterruptedException interrupted)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * A reusable buffer holding one board and its verdict
+     */
+    private static class Record {
+
+        long index;
+        int rows;
+        int columns;
+        byte[] cells = new byte[64];
+
+        int illegalCount;
+        int blankCount;
+        final StringBuilder detail = new StringBuilder();
+
+        /**
+         * Grow the tile array if it cannot hold the supplied number of tiles, keeping the tiles already read
+         * @param tileCount The number of tiles needed
+         */
+        void ensureCapacity(int tileCount)
+        {
+            if(cells.length < tileCount)
+            {
+                cells = Arrays.copyOf(cells, Math.max(tileCount, cells.length * 2));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+/** Helpers for holding a board as one byte per tile, the Mark ordinal of the tile in row order
+ * (index row * columns + column). Solvers and checkers that have to look at many boards work on
+ * these arrays rather than on MarupekeGrid so each worker can keep its own copy cheaply.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public final class BoardCells {
+
+    /**
+     * Byte value of a BLANK tile
+     */
+    public static final byte BLANK = (byte) Mark.BLANK.ordinal();
+
+    /**
+     * Byte value of a SOLID tile
+     */
+    public static final byte SOLID = (byte) Mark.SOLID.ordinal();
+
+    /**
+     * Byte value of a CROSS tile
+     */
+    public static final byte CROSS = (byte) Mark.CROSS.ordinal();
+
+    /**
+     * Byte value of a NOUGHT tile
+     */
+    public static final byte NOUGHT = (byte) Mark.NOUGHT.ordinal();
+
+    // row and column steps of the four directions, right, down, down-right and down-left, shared with the
+    // other classes that walk the lines of a board
+    static final int[] ROW_STEPS = {0, 1, 1, 1};
+    static final int[] COLUMN_STEPS = {1, 0, 1, -1};
+
+    private static final Mark[] MARKS = Mark.values();
+
+
+    /**
+     * Only static methods, never constructed
+     */
+    private BoardCells()
+    {
+    }
+
+    //public methods
+
+    /**
+     * Copy the marks of a grid into a new array
+     * @param grid The grid to copy
+     * @return The marks of the grid, one byte per tile
+     */
+    public static byte[] snapshot(MarupekeGrid grid)
+    {
+        byte[] cells = new byte[grid.getSize() * grid.getColumns()];
+        snapshot(grid, cells);
+        return cells;
+    }
+
+    /**
+     * Copy the marks of a grid into an existing array
+     * @param grid The grid to copy
+     * @param cells The array to copy into, at least rows * columns long
+     */
+    public static void snapshot(MarupekeGrid grid, byte[] cells)
+    {
+        int columns = grid.getColumns();
+
+        for(int row = 0; row < grid.getSize(); row++)
+        {
+            for(int column = 0; column < columns; column++)
+            {
+                cells[row * columns + column] = (byte) grid.getTile(row, column).getMark().ordinal();
+            }
+        }
+    }
+
+    /**
+     * Returns the Mark a byte value stands for
+     * @param cell The byte value of a tile
+     * @return The Mark of the tile
+     */
+    public static Mark toMark(byte cell)
+    {
+        return MARKS[cell];
+    }
+
+    /**
+     * Returns the other of CROSS and NOUGHT
+     * @param mark CROSS or NOUGHT
+     * @return NOUGHT for CROSS and CROSS for NOUGHT
+     */
+    public static byte opposite(byte mark)
+    {
+        return mark == CROSS ? NOUGHT : CROSS;
+    }
+
+    /**
+     * Check whether a mark can go on a tile without making three in a row with the marks around it,
+     * the mark on the tile itself is ignored
+     * @param cells The board
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark CROSS or NOUGHT
+     * @return True if the mark would not be part of any three in a row, false if it would
+     */
+    public static boolean canPlace(byte[] cells, int rows, int columns, int row, int column, byte mark)
+    {
+        for(int direction = 0; direction < ROW_STEPS.length; direction++)
+        {
+            int rowStep = ROW_STEPS[direction];
+            int columnStep = COLUMN_STEPS[direction];
+
+            //count matching marks either side of the tile, three in a row needs two of them
+            int before = matching(cells, rows, columns, row, column, -rowStep, -columnStep, mark);
+            int after = matching(cells, rows, columns, row, column, rowStep, columnStep, mark);
+
+            if(before + after >= 2)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //package methods
+
+    /**
+     * Count how many of the next two tiles in a direction have the supplied mark, stopping at the first that doesn't
+     * @param cells The board
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param row The row index of the starting tile
+     * @param column The column index of the starting tile
+     * @param rowStep The row step of the direction
+     * @param columnStep The column step of the direction
+     * @param mark The mark to match
+     * @return 0, 1 or 2
+     */
+    static int matching(byte[] cells, int rows, int columns, int row, int column,
+                         int rowStep, int columnStep, byte mark)
+    {
+        int count = 0;
+
+        for(int step = 1; step <= 2; step++)
+        {
+            int r = row + step * rowStep;
+            int c = column + step * columnStep;
+
+            if(r < 0 || r >= rows || c < 0 || c >= columns || cells[r * columns + c] != mark)
+            {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+}
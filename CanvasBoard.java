@@ -0,0 +1,535 @@
+import java.util.Arrays;
+import javafx.animation.AnimationTimer;
+import javafx.geometry.VPos;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.input.MouseButton;
+import javafx.scene.input.MouseEvent;
+import javafx.scene.input.ScrollEvent;
+import javafx.scene.layout.Pane;
+import javafx.scene.paint.Color;
+import javafx.scene.text.Font;
+import javafx.scene.text.TextAlignment;
+
+/** Draws the puzzle grid onto a single Canvas instead of one Button per tile, for grids too large
+ * for a GridPane. Only tiles that changed are redrawn and only tiles inside the visible viewport
+ * are ever drawn, the viewport can be zoomed with the scroll wheel and panned by dragging.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class CanvasBoard extends Pane {
+
+    /**
+     * The width and height of a tile in pixels at a zoom of 1
+     */
+    public static final double TILE_SIZE = 50;
+
+    private static final double MIN_ZOOM = 0.05;
+    private static final double MAX_ZOOM = 4;
+
+    // below this many pixels per tile the mark text is unreadable so only the colours are drawn
+    private static final double MIN_TEXT_SIZE = 10;
+
+    private static final Color EDITABLE_COLOUR = Color.rgb(240, 240, 240);
+    private static final Color LOCKED_COLOUR = Color.rgb(200, 200, 200);
+    private static final Color SOLID_COLOUR = Color.rgb(60, 60, 60);
+    private static final Color ILLEGAL_COLOUR = Color.rgb(240, 120, 120);
+    private static final Color UNMARKED_COLOUR = Color.rgb(250, 220, 120);
+    private static final Color LINE_COLOUR = Color.rgb(150, 150, 150);
+    private static final Color TEXT_COLOUR = Color.BLACK;
+
+    private static final byte STYLE_NONE = 0;
+    private static final byte STYLE_ILLEGAL = 1;
+    private static final byte STYLE_UNMARKED = 2;
+
+    private final Canvas canvas = new Canvas();
+
+    private MarupekeGrid game;
+    private int size;
+
+    // highlight style of each tile, indexed row * size + column
+    private byte[] styles = new byte[0];
+
+    // tiles waiting to be redrawn, the flags stop a tile being queued twice
+    private int[] dirtyTiles = new int[0];
+    private boolean[] dirtyFlags = new boolean[0];
+    private int dirtyCount;
+    private boolean fullRedraw = true;
+
+    // viewport, offsets are the board pixel shown at the top left of the canvas
+    private double zoom = 1;
+    private double offsetX;
+    private double offsetY;
+
+    // pan state
+    private double dragStartX;
+    private double dragStartY;
+    private boolean dragged;
+
+    // queues a redraw of every tile the game reports as changed
+    private final GridListener redrawListener = new GridListener() {
+        @Override
+        public void tileChanged(int row, int column, Mark oldMark, Mark newMark) {
+            markDirty(row, column);
+        }
+
+        @Override
+        public void legalityChanged(int row, int column, boolean illegal) {
+            //highlighting is decided by whoever owns the board
+        }
+    };
+
+    private final AnimationTimer redrawTimer = new AnimationTimer() {
+        @Override
+        public void handle(long now) {
+            flush();
+        }
+    };
+
+    /**
+     * Constructor to create the board for the supplied puzzle
+     * @param game The puzzle to display
+     */
+    public CanvasBoard(MarupekeGrid game)
+    {
+        getChildren().add(canvas);
+
+        //the canvas always fills the pane, a resize changes the viewport so everything visible is redrawn
+        canvas.widthProperty().bind(widthProperty());
+        canvas.heightProperty().bind(heightProperty());
+        canvas.widthProperty().addListener(e -> viewportChanged());
+        canvas.heightProperty().addListener(e -> viewportChanged());
+
+        canvas.setOnMousePressed(this::mousePressed);
+        canvas.setOnMouseDragged(this::mouseDragged);
+        canvas.setOnMouseReleased(this::mouseReleased);
+        canvas.setOnScroll(this::scrolled);
+
+        setGame(game);
+        redrawTimer.start();
+    }
+
+    //public methods
+
+    /**
+     * Display a new puzzle on the board, reusing the board rather than building a new one
+     * @param game The puzzle to display
+     */
+    public void setGame(MarupekeGrid game)
+    {
+        if(this.game != null)
+        {
+            this.game.removeGridListener(redrawListener);
+        }
+        this.game = game;
+        game.addGridListener(redrawListener);
+
+        int area = game.getSize() * game.getSize();
+
+        //only reallocate the per tile state when the new puzzle is bigger than any seen before
+        if(area > styles.length)
+        {
+            styles = new byte[area];
+            dirtyTiles = new int[area];
+            dirtyFlags = new boolean[area];
+        }
+        else
+        {
+            Arrays.fill(styles, 0, area, STYLE_NONE);
+            Arrays.fill(dirtyFlags, 0, area, false);
+        }
+
+        this.size = game.getSize();
+        dirtyCount = 0;
+        zoom = 1;
+        offsetX = 0;
+        offsetY = 0;
+        viewportChanged();
+    }
+
+    /**
+     * Queue the tile at the index to be redrawn on the next frame
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    public void markDirty(int row, int column)
+    {
+        int index = row * size + column;
+
+        if(!dirtyFlags[index])
+        {
+            dirtyFlags[index] = true;
+            dirtyTiles[dirtyCount++] = index;
+        }
+    }
+
+    /**
+     * Highlight the tile at the index as breaking the rules of the puzzle
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    public void highlightIllegal(int row, int column)
+    {
+        setTileStyle(row, column, STYLE_ILLEGAL);
+    }
+
+    /**
+     * Highlight the tile at the index as needing to be filled
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    public void highlightUnmarked(int row, int column)
+    {
+        setTileStyle(row, column, STYLE_UNMARKED);
+    }
+
+    /**
+     * Remove any highlight from the tile at the index
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    public void clearHighlight(int row, int column)
+    {
+        setTileStyle(row, column, STYLE_NONE);
+    }
+
+    /**
+     * Highlight all tiles with a blank mark to indicate to the user that they must be filled
+     */
+    public void showUnmarked()
+    {
+        for(int row = 0; row < size; row++)
+        {
+            for(int column = 0; column < size; column++)
+            {
+                if(game.getTile(row, column).getMark() == Mark.BLANK)
+                {
+                    setTileStyle(row, column, STYLE_UNMARKED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all highlights from the board
+     */
+    public void clearStyling()
+    {
+        for(int index = 0; index < size * size; index++)
+        {
+            if(styles[index] != STYLE_NONE)
+            {
+                styles[index] = STYLE_NONE;
+                markDirty(index / size, index % size);
+            }
+        }
+    }
+
+    /**
+     * Returns the row index of the tile under a point on the board, or -1 if there is no tile there
+     * @param y The y coordinate of the point on the canvas
+     * @return The row index of the tile
+     */
+    public int rowAt(double y)
+    {
+        return indexAt(y + offsetY);
+    }
+
+    /**
+     * Returns the column index of the tile under a point on the board, or -1 if there is no tile there
+     * @param x The x coordinate of the point on the canvas
+     * @return The column index of the tile
+     */
+    public int columnAt(double x)
+    {
+        return indexAt(x + offsetX);
+    }
+
+    /**
+     * Stop redrawing the board, should be called once the board is no longer shown
+     */
+    public void dispose()
+    {
+        redrawTimer.stop();
+        game.removeGridListener(redrawListener);
+    }
+
+    //private methods
+
+    /**
+     * Change the highlight style of a tile, queueing a redraw only if the style changed
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param style The new style of the tile
+     */
+    private void setTileStyle(int row, int column, byte style)
+    {
+        int index = row * size + column;
+
+        if(styles[index] != style)
+        {
+            styles[index] = style;
+            markDirty(row, column);
+        }
+    }
+
+    /**
+     * Convert a coordinate in board pixels to a tile index
+     * @param boardCoordinate The coordinate including the pan offset
+     * @return The tile index, or -1 if outside the board
+     */
+    private int indexAt(double boardCoordinate)
+    {
+        int index = (int) Math.floor(boardCoordinate / (TILE_SIZE * zoom));
+
+        if(index < 0 || index >= size)
+        {
+            return -1;
+        }
+        return index;
+    }
+
+    /**
+     * The viewport moved, resized or the puzzle changed so everything visible must be redrawn
+     */
+    private void viewportChanged()
+    {
+        clampOffsets();
+        fullRedraw = true;
+    }
+
+    /**
+     * Keep the viewport from being panned off the edge of the board
+     */
+    private void clampOffsets()
+    {
+        double boardPixels = size * TILE_SIZE * zoom;
+
+        offsetX = Math.max(0, Math.min(offsetX, boardPixels - canvas.getWidth()));
+        offsetY = Math.max(0, Math.min(offsetY, boardPixels - canvas.getHeight()));
+    }
+
+    /**
+     * Called once a frame, redraws the whole viewport if it changed or just the dirty tiles otherwise
+     */
+    private void flush()
+    {
+        GraphicsContext gc = canvas.getGraphicsContext2D();
+
+        if(fullRedraw)
+        {
+            fullRedraw = false;
+            drawViewport(gc);
+        }
+        else
+        {
+            for(int i = 0; i < dirtyCount; i++)
+            {
+                int index = dirtyTiles[i];
+                if(isVisible(index / size, index % size))
+                {
+                    drawTile(gc, index / size, index % size);
+                }
+            }
+        }
+
+        //everything has now been drawn so no tile is dirty any more
+        for(int i = 0; i < dirtyCount; i++)
+        {
+            dirtyFlags[dirtyTiles[i]] = false;
+        }
+        dirtyCount = 0;
+    }
+
+    /**
+     * Draw every tile inside the viewport
+     * @param gc The graphics context of the canvas
+     */
+    private void drawViewport(GraphicsContext gc)
+    {
+        gc.setFill(Color.WHITE);
+        gc.fillRect(0, 0, canvas.getWidth(), canvas.getHeight());
+
+        double tileSize = TILE_SIZE * zoom;
+        int firstRow = (int) (offsetY / tileSize);
+        int firstColumn = (int) (offsetX / tileSize);
+        int lastRow = Math.min(size - 1, (int) ((offsetY + canvas.getHeight()) / tileSize));
+        int lastColumn = Math.min(size - 1, (int) ((offsetX + canvas.getWidth()) / tileSize));
+
+        for(int row = firstRow; row <= lastRow; row++)
+        {
+            for(int column = firstColumn; column <= lastColumn; column++)
+            {
+                drawTile(gc, row, column);
+            }
+        }
+    }
+
+    /**
+     * Check whether any part of a tile is inside the viewport
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return True if the tile can be seen, false if not
+     */
+    private boolean isVisible(int row, int column)
+    {
+        double tileSize = TILE_SIZE * zoom;
+        double x = column * tileSize - offsetX;
+        double y = row * tileSize - offsetY;
+
+        return x + tileSize > 0 && y + tileSize > 0 && x < canvas.getWidth() && y < canvas.getHeight();
+    }
+
+    /**
+     * Draw a single tile at its position in the viewport
+     * @param gc The graphics context of the canvas
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    private void drawTile(GraphicsContext gc, int row, int column)
+    {
+        double tileSize = TILE_SIZE * zoom;
+        double x = column * tileSize - offsetX;
+        double y = row * tileSize - offsetY;
+        MPTile tile = game.getTile(row, column);
+
+        gc.setFill(tileColour(tile, styles[row * size + column]));
+        gc.fillRect(x, y, tileSize, tileSize);
+
+        gc.setStroke(LINE_COLOUR);
+        gc.setLineWidth(1);
+        gc.strokeRect(x + 0.5, y + 0.5, tileSize - 1, tileSize - 1);
+
+        if(tileSize >= MIN_TEXT_SIZE && tile.getMark() != Mark.SOLID)
+        {
+            gc.setFill(TEXT_COLOUR);
+            gc.setFont(Font.font(tileSize * 0.4));
+            gc.setTextAlign(TextAlignment.CENTER);
+            gc.setTextBaseline(VPos.CENTER);
+            gc.fillText(tile.toString(), x + tileSize / 2, y + tileSize / 2);
+        }
+    }
+
+    /**
+     * Choose the background colour of a tile
+     * @param tile The tile to colour
+     * @param style The highlight style of the tile
+     * @return The colour to fill the tile with
+     */
+    private Color tileColour(MPTile tile, byte style)
+    {
+        if(tile.getMark() == Mark.SOLID)
+        {
+            return SOLID_COLOUR;
+        }
+        if(style == STYLE_ILLEGAL)
+        {
+            return ILLEGAL_COLOUR;
+        }
+        if(style == STYLE_UNMARKED)
+        {
+            return UNMARKED_COLOUR;
+        }
+        return tile.isEditable() ? EDITABLE_COLOUR : LOCKED_COLOUR;
+    }
+
+    /**
+     * Cycle the mark on the tile that was clicked, the redraw is queued by the redraw listener
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     */
+    private void cycleSymbol(int row, int column)
+    {
+        switch (game.getTile(row, column).getMark())
+        {
+            case BLANK:
+                game.userMarkRequest(row, column, Mark.CROSS);
+                break;
+
+            case CROSS:
+                game.userMarkRequest(row, column, Mark.NOUGHT);
+                break;
+
+            case NOUGHT:
+                game.userMarkRequest(row, column, Mark.BLANK);
+                break;
+
+            default:
+                break;
+        }
+    }
+
+    //mouse handling
+
+    /**
+     * Remember where the mouse was pressed so a drag can be told apart from a click
+     * @param e the mouse event
+     */
+    private void mousePressed(MouseEvent e)
+    {
+        dragStartX = e.getX();
+        dragStartY = e.getY();
+        dragged = false;
+    }
+
+    /**
+     * Pan the viewport by the distance the mouse has been dragged
+     * @param e the mouse event
+     */
+    private void mouseDragged(MouseEvent e)
+    {
+        double dx = e.getX() - dragStartX;
+        double dy = e.getY() - dragStartY;
+
+        //ignore tiny movements so a slightly shaky click still counts as a click
+        if(!dragged && Math.abs(dx) < 4 && Math.abs(dy) < 4)
+        {
+            return;
+        }
+
+        dragged = true;
+        offsetX -= dx;
+        offsetY -= dy;
+        dragStartX = e.getX();
+        dragStartY = e.getY();
+        viewportChanged();
+    }
+
+    /**
+     * Cycle the mark of the clicked tile, unless the mouse was dragged
+     * @param e the mouse event
+     */
+    private void mouseReleased(MouseEvent e)
+    {
+        if(dragged || e.getButton() != MouseButton.PRIMARY)
+        {
+            return;
+        }
+
+        int row = rowAt(e.getY());
+        int column = columnAt(e.getX());
+
+        if(row >= 0 && column >= 0)
+        {
+            cycleSymbol(row, column);
+        }
+    }
+
+    /**
+     * Zoom the viewport in or out around the mouse
+     * @param e the scroll event
+     */
+    private void scrolled(ScrollEvent e)
+    {
+        double newZoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, zoom * Math.pow(1.001, e.getDeltaY())));
+
+        //keep the board pixel under the mouse in the same place on screen
+        double scale = newZoom / zoom;
+        offsetX = (offsetX + e.getX()) * scale - e.getX();
+        offsetY = (offsetY + e.getY()) * scale - e.getY();
+        zoom = newZoom;
+
+        viewportChanged();
+    }
+
+}
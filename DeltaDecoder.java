@@ -0,0 +1,166 @@
+/** Applies the messages produced by a DeltaEncoder to a spectator's own grid. A keyframe replaces the
+ * whole board, a delta only touches the tiles it lists, so applying a delta takes time proportional to
+ * the number of changes. The tiles are changed through the grid so its listeners, such as the display,
+ * hear about each change. See DeltaEncoder for the layout of the messages.
+ *
+ * Deltas only make sense on top of the message before them, so a delta that does not follow on from the
+ * last message applied is refused and the spectator has to wait for, or ask for, the next keyframe.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class DeltaDecoder {
+
+    private static final Mark[] MARKS = Mark.values();
+
+    // sequence number of the last message applied, -1 until the first keyframe
+    private long sequence = -1;
+
+    // message being read and the position in it
+    private byte[] message;
+    private int position;
+
+
+    //public methods
+
+    /**
+     * Apply a message to a grid
+     * @param message The message from a DeltaEncoder
+     * @param grid The grid to apply it to, must be big enough for the board sent by the keyframes
+     * @return True if the message was applied, false if it was a delta that does not follow on from the
+     * last message applied
+     * @throws IllegalArgumentException if the message is malformed or does not fit the grid
+     */
+    public boolean apply(byte[] message, MarupekeGrid grid) throws IllegalArgumentException
+    {
+        this.message = message;
+        this.position = 0;
+
+        try
+        {
+            byte type = readByte();
+            long messageSequence = readVarint();
+
+            if(type == DeltaEncoder.KEYFRAME)
+            {
+                applyKeyframe(grid);
+            }
+            else if(type == DeltaEncoder.DELTA)
+            {
+                if(sequence < 0 || messageSequence != sequence + 1)
+                {
+                    return false;
+                }
+                applyDelta(grid);
+            }
+            else
+            {
+                throw new IllegalArgumentException("Unknown message type " + type);
+            }
+
+            sequence = messageSequence;
+            return true;
+        }
+        catch(ArrayIndexOutOfBoundsException boundsException)
+        {
+            throw new IllegalArgumentException("Message is truncated or does not fit the grid", boundsException);
+        }
+        finally
+        {
+            this.message = null;
+        }
+    }
+
+    /**
+     * Returns the sequence number of the last message applied
+     * @return the sequence number, -1 if no keyframe has been applied yet
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Returns whether the decoder needs a keyframe before it can apply deltas
+     * @return True if no keyframe has been applied yet, false if not
+     */
+    public boolean needsKeyframe()
+    {
+        return sequence < 0;
+    }
+
+    //private methods
+
+    /**
+     * Reset the grid to the size of the keyframe and set every tile
+     * @param grid The grid to apply the keyframe to
+     */
+    private void applyKeyframe(MarupekeGrid grid)
+    {
+        int rows = (int) readVarint();
+        int columns = (int) readVarint();
+
+        if(grid.getSize() != rows || grid.getColumns() != columns)
+        {
+            grid.reset(rows, columns);
+        }
+
+        for(int index = 0; index < rows * columns; index++)
+        {
+            int nibble = (index % 2 == 0 ? message[position] : message[position++] >> 4) & 0xF;
+
+            grid.reinitializeTile(index / columns, index % columns, MARKS[nibble & ~DeltaEncoder.EDITABLE_FLAG],
+                    (nibble & DeltaEncoder.EDITABLE_FLAG) != 0);
+        }
+    }
+
+    /**
+     * Set the mark of each tile listed by the delta, leaving whether it is editable alone
+     * @param grid The grid to apply the delta to
+     */
+    private void applyDelta(MarupekeGrid grid)
+    {
+        int columns = grid.getColumns();
+        long count = readVarint();
+        int index = -1;
+
+        for(long i = 0; i < count; i++)
+        {
+            long entry = readVarint();
+            index += (int) (entry >>> 2) + 1;
+
+            MPTile tile = grid.getTile(index / columns, index % columns);
+            grid.reinitializeTile(index / columns, index % columns, MARKS[(int) (entry & 3)], tile.isEditable());
+        }
+    }
+
+    /**
+     * Read a single byte of the message
+     * @return The byte read
+     */
+    private byte readByte()
+    {
+        return message[position++];
+    }
+
+    /**
+     * Read a varint of the message
+     * @return The number read
+     */
+    private long readVarint()
+    {
+        long value = 0;
+
+        for(int shift = 0; shift < Long.SIZE; shift += 7)
+        {
+            byte next = readByte();
+
+            value |= (long) (next & 0x7F) << shift;
+            if(next >= 0)
+            {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Varint too long");
+    }
+
+}
@@ -0,0 +1,324 @@
+import java.util.Arrays;
+
+/** Turns the moves made on a grid into compact messages for spectators, instead of sending the whole
+ * board after every move. Most messages are deltas listing only the tiles that changed since the last
+ * message, taken from a MoveJournal so the work done is proportional to the number of changes rather
+ * than the size of the board. Every so often, whenever the board changes size, or on request, a
+ * keyframe holding the whole board is sent instead so a spectator that joins late or misses a message
+ * can catch up. Messages are read by a DeltaDecoder.
+ *
+ * Every message starts with its type byte and a varint sequence number, varints being 7 bits per byte
+ * with the high bit set on every byte but the last.
+ * A keyframe then holds the rows and columns as varints followed by one nibble per tile in row order,
+ * low nibble first, holding the Mark ordinal plus EDITABLE_FLAG.
+ * A delta holds the number of changed tiles as a varint followed by one varint per tile in index
+ * order, holding the gap since the previous changed tile shifted left 2 bits with the new Mark ordinal
+ * in the low 2 bits. Deltas only carry marks, a change to whether a tile is editable is only sent by
+ * the next keyframe.
+ *
+ * The encoder only sees tiles that tell their listeners they changed, so after resetting the grid to
+ * the same size call requestKeyframe().
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class DeltaEncoder {
+
+    /**
+     * Type byte of a message holding the whole board
+     */
+    public static final byte KEYFRAME = 0;
+
+    /**
+     * Type byte of a message holding the tiles changed since the previous message
+     */
+    public static final byte DELTA = 1;
+
+    /**
+     * Added to the Mark ordinal of a keyframe tile when the tile is editable
+     */
+    public static final int EDITABLE_FLAG = 4;
+
+    /**
+     * Number of messages between keyframes when none is given
+     */
+    public static final int DEFAULT_KEYFRAME_INTERVAL = 100;
+
+    // the most bytes a varint of a long can take
+    private static final int MAX_VARINT_BYTES = 10;
+
+    private final MarupekeGrid grid;
+    private final MoveJournal journal;
+    private final int keyframeInterval;
+
+    // dimensions of the board sent by the last keyframe
+    private int sentRows = -1;
+    private int sentColumns = -1;
+
+    private long sequence;
+    private int sinceKeyframe;
+    private boolean keyframeRequested = true;
+
+    // scratch space for the changed tiles and the message being written
+    private final int[] changes;
+    private final MessageWriter writer = new MessageWriter();
+
+
+    /**
+     * Constructor to create an encoder that sends a keyframe every DEFAULT_KEYFRAME_INTERVAL messages
+     * @param grid The grid to send the moves of
+     */
+    public DeltaEncoder(MarupekeGrid grid)
+    {
+        this(grid, DEFAULT_KEYFRAME_INTERVAL);
+    }
+
+    /**
+     * Constructor to create an encoder, the first message it produces is always a keyframe
+     * @param grid The grid to send the moves of
+     * @param keyframeInterval The number of messages between keyframes
+     * @throws IllegalArgumentException if the interval is less than 1
+     */
+    public DeltaEncoder(MarupekeGrid grid, int keyframeInterval) throws IllegalArgumentException
+    {
+        if(keyframeInterval < 1)
+        {
+            throw new IllegalArgumentException("Keyframe interval must be at least 1, not " + keyframeInterval);
+        }
+
+        this.grid = grid;
+        this.keyframeInterval = keyframeInterval;
+        this.journal = new MoveJournal(grid);
+        this.changes = new int[grid.getRowCapacity() * grid.getColumnCapacity()];
+    }
+
+    //public methods
+
+    /**
+     * Produce the next message, a keyframe if one is due and a delta of the changes since the last message otherwise
+     * @return The encoded message
+     */
+    public byte[] nextMessage()
+    {
+        sequence++;
+
+        if(keyframeRequested || ++sinceKeyframe >= keyframeInterval ||
+                grid.getSize() != sentRows || grid.getColumns() != sentColumns)
+        {
+            return keyframe();
+        }
+
+        int count = journal.drainTo(changes);
+
+        //gaps between indices are only small and positive in index order
+        Arrays.sort(changes, 0, count);
+
+        writer.start(DELTA, sequence);
+        writer.writeVarint(count);
+
+        int previous = -1;
+        for(int i = 0; i < count; i++)
+        {
+            int index = changes[i];
+            Mark mark = grid.getTile(index / sentColumns, index % sentColumns).getMark();
+
+            writer.writeVarint(((index - previous - 1) << 2) | mark.ordinal());
+            previous = index;
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Make the next message a keyframe, for example when a spectator joins
+     */
+    public void requestKeyframe()
+    {
+        keyframeRequested = true;
+    }
+
+    /**
+     * Returns whether any tile has changed since the last message
+     * @return True if there are changes to send, false if not
+     */
+    public boolean hasChanges()
+    {
+        return journal.size() > 0;
+    }
+
+    /**
+     * Returns the sequence number of the last message produced
+     * @return the sequence number, 0 if no message has been produced
+     */
+    public long getSequence()
+    {
+        return sequence;
+    }
+
+    /**
+     * Stop recording the moves of the grid
+     */
+    public void close()
+    {
+        journal.detach();
+    }
+
+    /**
+     * Encode the difference between two states of a board as a delta, for when no journal of the moves was kept.
+     * This has to compare every tile so takes time proportional to the size of the board.
+     * @param from The state the receiver has
+     * @param to The state the receiver should end up with
+     * @param sequence The sequence number of the delta, one more than the message that gave the receiver from
+     * @return The encoded delta
+     * @throws IllegalArgumentException if the boards are not the same size
+     */
+    public static byte[] diff(MarupekeGrid from, MarupekeGrid to, long sequence) throws IllegalArgumentException
+    {
+        int rows = to.getSize();
+        int columns = to.getColumns();
+
+        if(from.getSize() != rows || from.getColumns() != columns)
+        {
+            throw new IllegalArgumentException("Cannot diff a " + from.getSize() + "x" + from.getColumns() +
+                    " board against a " + rows + "x" + columns + " board");
+        }
+
+        int count = 0;
+        int[] gaps = new int[rows * columns];
+        int previous = -1;
+
+        for(int index = 0; index < rows * columns; index++)
+        {
+            Mark mark = to.getTile(index / columns, index % columns).getMark();
+
+            if(mark != from.getTile(index / columns, index % columns).getMark())
+            {
+                gaps[count++] = ((index - previous - 1) << 2) | mark.ordinal();
+                previous = index;
+            }
+        }
+
+        MessageWriter writer = new MessageWriter();
+        writer.start(DELTA, sequence);
+        writer.writeVarint(count);
+        for(int i = 0; i < count; i++)
+        {
+            writer.writeVarint(gaps[i]);
+        }
+        return writer.toByteArray();
+    }
+
+    //private methods
+
+    /**
+     * Produce a keyframe of the whole board and start the journal again
+     * @return The encoded keyframe
+     */
+    private byte[] keyframe()
+    {
+        int rows = grid.getSize();
+        int columns = grid.getColumns();
+
+        journal.clear();
+        keyframeRequested = false;
+        sinceKeyframe = 0;
+        sentRows = rows;
+        sentColumns = columns;
+
+        writer.start(KEYFRAME, sequence);
+        writer.writeVarint(rows);
+        writer.writeVarint(columns);
+
+        for(int index = 0; index < rows * columns; index += 2)
+        {
+            int packed = nibble(index / columns, index % columns);
+
+            if(index + 1 < rows * columns)
+            {
+                packed |= nibble((index + 1) / columns, (index + 1) % columns) << 4;
+            }
+            writer.writeByte((byte) packed);
+        }
+        return writer.toByteArray();
+    }
+
+    /**
+     * Returns the keyframe nibble of a tile
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return The Mark ordinal of the tile, plus EDITABLE_FLAG if it is editable
+     */
+    private int nibble(int row, int column)
+    {
+        MPTile tile = grid.getTile(row, column);
+
+        return tile.getMark().ordinal() | (tile.isEditable() ? EDITABLE_FLAG : 0);
+    }
+
+    /**
+     * Growable buffer a message is written into, kept between messages so only the finished message is allocated
+     */
+    private static class MessageWriter {
+
+        private byte[] buffer = new byte[64];
+        private int length;
+
+        /**
+         * Empty the buffer and write the type byte and sequence number that start every message
+         * @param type KEYFRAME or DELTA
+         * @param sequence The sequence number of the message
+         */
+        void start(byte type, long sequence)
+        {
+            length = 0;
+            writeByte(type);
+            writeVarint(sequence);
+        }
+
+        /**
+         * Write a single byte to the message
+         * @param value The byte to write
+         */
+        void writeByte(byte value)
+        {
+            ensureCapacity(1);
+            buffer[length++] = value;
+        }
+
+        /**
+         * Write a non-negative number to the message as a varint
+         * @param value The number to write
+         */
+        void writeVarint(long value)
+        {
+            ensureCapacity(MAX_VARINT_BYTES);
+
+            while((value & ~0x7FL) != 0)
+            {
+                buffer[length++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[length++] = (byte) value;
+        }
+
+        /**
+         * Returns the finished message
+         * @return a copy of the bytes written since start
+         */
+        byte[] toByteArray()
+        {
+            return Arrays.copyOf(buffer, length);
+        }
+
+        /**
+         * Grow the buffer if it cannot hold more bytes
+         * @param extra The number of bytes about to be written
+         */
+        private void ensureCapacity(int extra)
+        {
+            if(length + extra > buffer.length)
+            {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, length + extra));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,828 @@
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/** Command line tool that checks every faster engine for the rules of the puzzle against the reference,
+ * MarupekeGrid.illegalities() and isPuzzleComplete(), on randomly generated boards.
+ *
+ * Usage: java DifferentialFuzzer [--seed n] [--boards n] [--max-size n] [--batch n]
+ *
+ * Each board gets its own random number generator seeded from the run seed and the board index, so a
+ * failing board can be regenerated from the seed and index printed with it. Boards range from 1x1 to
+ * max-size in each direction with the mix of blank, solid, cross and nought tiles chosen per board, from
+ * nearly empty to nearly full. Every board is checked with:
+ *
+ * RunRule, the standard rule run over one byte per tile.
+ * VariantMarupekeGrid, the same rule behind the MarupekeGrid interface.
+ * copy(), a copy of the reference grid.
+ * ValidationResult, the single scan used by the validation service.
+ * listener, the legality GridListeners are told about while the board is filled tile by tile, for
+ * both MarupekeGrid and VariantMarupekeGrid.
+ * delta, a spectator grid kept up to date with DeltaEncoder and DeltaDecoder while the board is filled.
+ * batch, BatchValidator run on the boards written out in both its text and binary formats.
+ * DomainMask, the marks each blank tile can take, built both from the whole board and one tile at a time
+ * with extra marks placed and removed again and marks changed and put back, and on legal boards whether
+ * placing an allowed mark keeps the board legal.
+ * RunRule variants, RunRule and VariantMarupekeGrid, both whole and filled tile by tile, with a random run
+ * length from 3 to 5 that may wrap round the board, against a brute force check of every line of tiles
+ * as long as the run length, and on boards that keep to the rule whether RunRule.canPlace allows exactly
+ * the marks that keep the board to it.
+ *
+ * Each engine has to report exactly the tiles illegalities() reports, which skips solid and blank tiles and
+ * only reports the middle of three, along with the same number of blank tiles and the same verdict. The
+ * variants have to report exactly the tiles the brute force check reports instead. The
+ * first few mismatches are printed with their boards, and the exit status is 1 if there were any.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class DifferentialFuzzer {
+
+    // mismatches printed in full, the rest are only counted
+    private static final int MAX_REPORTS = 10;
+
+    private static final Mark[] MARKS = Mark.values();
+
+    private static final String[] ENGINES = {"RunRule", "VariantMarupekeGrid", "copy", "ValidationResult",
+            "listener", "delta", "batch", "DomainMask", "RunRule variants"};
+
+    private final long seed;
+    private final int maxSize;
+    private final int batchSize;
+
+    private final long[] mismatches = new long[ENGINES.length];
+    private long reports;
+
+    // boards waiting to be checked by BatchValidator, with the verdict lines the reference expects
+    private final ByteArrayOutputStream textBatch = new ByteArrayOutputStream();
+    private final ByteArrayOutputStream binaryBatch = new ByteArrayOutputStream();
+    private final List<String> textExpected = new ArrayList<>();
+    private final List<String> binaryExpected = new ArrayList<>();
+    private final List<Long> textBoards = new ArrayList<>();
+    private final List<Long> binaryBoards = new ArrayList<>();
+
+
+    /**
+     * Constructor to create a fuzzer
+     * @param seed The seed the board of each index is generated from
+     * @param maxSize The largest number of rows or columns of a board
+     * @param batchSize The number of boards handed to BatchValidator at once
+     */
+    public DifferentialFuzzer(long seed, int maxSize, int batchSize)
+    {
+        this.seed = seed;
+        this.maxSize = Math.max(1, maxSize);
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Run the fuzzer from the command line
+     * @param args The command line arguments, see the class description
+     */
+    public static void main(String[] args)
+    {
+        long seed = new Random().nextLong();
+        long boards = 1_000_000;
+        int maxSize = 12;
+        int batchSize = 20_000;
+
+        try {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+
+                    case "--boards":
+                        boards = Long.parseLong(args[++i]);
+                        break;
+
+                    case "--max-size":
+                        maxSize = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--batch":
+                        batchSize = Integer.parseInt(args[++i]);
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        }
+        catch(IllegalArgumentException | ArrayIndexOutOfBoundsException argumentException)
+        {
+            System.err.println("Usage: java DifferentialFuzzer [--seed n] [--boards n] [--max-size n] [--batch n]");
+            System.exit(2);
+        }
+
+        System.out.println("seed: " + seed + "  boards: " + boards + "  max size: " + maxSize);
+        DifferentialFuzzer fuzzer = new DifferentialFuzzer(seed, maxSize, batchSize);
+
+        try {
+            long start = System.nanoTime();
+            fuzzer.run(boards);
+            System.out.printf("time: %.3fs%n", (System.nanoTime() - start) / 1e9);
+        }
+        catch(IOException batchException)
+        {
+            System.err.println("Error: " + batchException.getMessage());
+            System.exit(1);
+        }
+
+        System.out.println(fuzzer.report());
+        System.exit(fuzzer.totalMismatches() == 0 ? 0 : 1);
+    }
+
+    //public methods
+
+    /**
+     * Generate and check boards
+     * @param boards The number of boards to check, starting from index 0
+     * @throws IOException if the boards for BatchValidator cannot be written out
+     */
+    public void run(long boards) throws IOException
+    {
+        for(long board = 0; board < boards; board++)
+        {
+            check(board);
+
+            if(textExpected.size() + binaryExpected.size() >= batchSize)
+            {
+                runBatches();
+            }
+        }
+        runBatches();
+    }
+
+    /**
+     * Generate one board and check it with every engine
+     * @param board The index of the board
+     * @throws IOException if the board cannot be added to the BatchValidator batch
+     */
+    public void check(long board) throws IOException
+    {
+        Random rand = boardRandom(board);
+        int rows = 1 + rand.nextInt(maxSize);
+        int columns = rand.nextInt(4) == 0 ? 1 + rand.nextInt(maxSize) : rows;
+        byte[] cells = randomCells(rand, rows * columns);
+
+        MarupekeGrid reference = new MarupekeGrid(rows, columns);
+        fill(reference, cells);
+
+        boolean[] expected = toTiles(reference.illegalities(), rows, columns);
+        int expectedBlanks = reference.blankTiles;
+        boolean expectedComplete = reference.isPuzzleComplete();
+
+        //RunRule on one byte per tile
+        boolean[] illegal = new boolean[rows * columns];
+        int count = RunRule.standard().findIllegal(cells, rows, columns, illegal);
+        compare(0, board, reference, expected, illegal, count != countTrue(illegal) ? "count " + count : null);
+
+        //VariantMarupekeGrid with the standard rule
+        VariantMarupekeGrid variant = new VariantMarupekeGrid(rows, columns, RunRule.standard());
+        fill(variant, cells);
+        compareGrid(1, board, reference, expected, expectedBlanks, expectedComplete, variant);
+
+        //copy of the reference
+        compareGrid(2, board, reference, expected, expectedBlanks, expectedComplete, reference.copy());
+
+        //ValidationResult
+        ValidationResult result = ValidationResult.of(reference);
+        String resultDetail = null;
+        if(result.getBlankTiles() != expectedBlanks || result.isComplete() != expectedComplete ||
+                result.isLegal() == countTrue(expected) > 0)
+        {
+            resultDetail = "blanks " + result.getBlankTiles() + " complete " + result.isComplete() + " legal " + result.isLegal();
+        }
+        compare(3, board, reference, expected, toTiles(result.getIllegalTiles(), rows, columns), resultDetail);
+
+        //listeners and delta sync, filling the board one tile at a time in a random order
+        fillIncrementally(board, rand, reference, new MarupekeGrid(rows, columns), cells, 4, expected);
+        fillIncrementally(board, rand, reference, new VariantMarupekeGrid(rows, columns, RunRule.standard()), cells, 4, expected);
+
+        checkDomain(board, rand, reference, cells, expected);
+
+        checkVariant(board, rand, reference, cells, new RunRule(3 + rand.nextInt(3), rand.nextBoolean()));
+
+        //BatchValidator, only square boards can be written as text
+        String line = (expectedComplete ? "COMPLETE" : countTrue(expected) > 0 ? "ILLEGAL" : "INCOMPLETE") +
+                " " + countTrue(expected) + " " + expectedBlanks + tileList(expected, columns);
+        if(rows == columns && rand.nextBoolean())
+        {
+            textBatch.write(reference.toString().getBytes(StandardCharsets.US_ASCII));
+            textBatch.write('\n');
+            textExpected.add(line);
+            textBoards.add(board);
+        }
+        else
+        {
+            BatchValidator.writeBinary(reference, binaryBatch);
+            binaryExpected.add(line);
+            binaryBoards.add(board);
+        }
+    }
+
+    /**
+     * Returns the number of mismatches found by every engine
+     * @return the total number of mismatches
+     */
+    public long totalMismatches()
+    {
+        long total = 0;
+
+        for(long engineMismatches : mismatches)
+        {
+            total += engineMismatches;
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of mismatches found by each engine
+     * @return a line per engine
+     */
+    public String report()
+    {
+        StringBuilder report = new StringBuilder();
+
+        for(int engine = 0; engine < ENGINES.length; engine++)
+        {
+            report.append(String.format("%-20s %d mismatches%n", ENGINES[engine], mismatches[engine]));
+        }
+        return report.toString();
+    }
+
+    //private methods
+
+    /**
+     * Returns the random number generator of a board, the same for the same seed and index every run
+     * @param board The index of the board
+     * @return A generator for the board
+     */
+    private Random boardRandom(long board)
+    {
+        return new Random(seed * 0x9E3779B97F4A7C15L + board);
+    }
+
+    /**
+     * Choose the tiles of a board, with the mix of marks picked at random so some boards are nearly empty,
+     * some nearly full and some mostly solid
+     * @param rand The generator of the board
+     * @param area The number of tiles
+     * @return The tiles, one byte per tile
+     */
+    private static byte[] randomCells(Random rand, int area)
+    {
+        double blank = rand.nextDouble() * rand.nextDouble();
+        double solid = (1 - blank) * rand.nextDouble() * rand.nextDouble();
+        double cross = (1 - blank - solid) * rand.nextDouble();
+        byte[] cells = new byte[area];
+
+        for(int tile = 0; tile < area; tile++)
+        {
+            double r = rand.nextDouble();
+
+            if(r < blank)
+            {
+                cells[tile] = BoardCells.BLANK;
+            }
+            else if(r < blank + solid)
+            {
+                cells[tile] = BoardCells.SOLID;
+            }
+            else if(r < blank + solid + cross)
+            {
+                cells[tile] = BoardCells.CROSS;
+            }
+            else
+            {
+                cells[tile] = BoardCells.NOUGHT;
+            }
+        }
+        return cells;
+    }
+
+    /**
+     * Set every tile of a grid, blank tiles are left editable as a generated puzzle would have them
+     * @param grid The grid to fill
+     * @param cells The tiles, one byte per tile
+     */
+    private static void fill(MarupekeGrid grid, byte[] cells)
+    {
+        int columns = grid.getColumns();
+
+        for(int tile = 0; tile < cells.length; tile++)
+        {
+            grid.reinitializeTile(tile / columns, tile % columns, MARKS[cells[tile]], cells[tile] == BoardCells.BLANK);
+        }
+    }
+
+    /**
+     * Fill a blank grid one tile at a time, in a random order with some tiles taking a wrong mark first, and
+     * check the legality its listeners were told about and a spectator grid kept up to date by delta sync
+     * @param board The index of the board
+     * @param rand The generator of the board
+     * @param reference The reference grid holding the finished board
+     * @param grid The blank grid to fill
+     * @param cells The tiles of the finished board
+     * @param listenerEngine The index of the engine the listener legality is checked as
+     * @param expectedTold The illegal tiles of the finished board under the rule of the grid
+     */
+    private void fillIncrementally(long board, Random rand, MarupekeGrid reference, MarupekeGrid grid, byte[] cells,
+                                   int listenerEngine, boolean[] expectedTold)
+    {
+        int rows = grid.getSize();
+        int columns = grid.getColumns();
+        boolean[] told = new boolean[rows * columns];
+
+        grid.addGridListener(new GridListener() {
+            @Override
+            public void tileChanged(int row, int column, Mark oldMark, Mark newMark)
+            {
+            }
+
+            @Override
+            public void legalityChanged(int row, int column, boolean illegal)
+            {
+                told[row * columns + column] = illegal;
+            }
+        });
+
+        DeltaEncoder encoder = new DeltaEncoder(grid, 1 + rand.nextInt(16));
+        DeltaDecoder decoder = new DeltaDecoder();
+        MarupekeGrid spectator = new MarupekeGrid(rows, columns);
+        decoder.apply(encoder.nextMessage(), spectator);
+
+        List<Integer> order = new ArrayList<>(cells.length);
+        for(int tile = 0; tile < cells.length; tile++)
+        {
+            order.add(tile);
+        }
+        Collections.shuffle(order, rand);
+
+        for(int tile : order)
+        {
+            if(rand.nextInt(4) == 0)
+            {
+                grid.reinitializeTile(tile / columns, tile % columns, MARKS[rand.nextInt(MARKS.length)], true);
+            }
+            grid.reinitializeTile(tile / columns, tile % columns, MARKS[cells[tile]], cells[tile] == BoardCells.BLANK);
+
+            if(rand.nextInt(8) == 0)
+            {
+                decoder.apply(encoder.nextMessage(), spectator);
+            }
+        }
+        decoder.apply(encoder.nextMessage(), spectator);
+        encoder.close();
+
+        compare(listenerEngine, board, reference, expectedTold, told, null);
+
+        //the spectator is a plain grid so it always follows the standard rule
+        boolean[] expected = toTiles(reference.illegalities(), rows, columns);
+
+        String deltaDetail = spectator.toString().equals(reference.toString()) ? null : "spectator board\n" + spectator;
+        compare(5, board, reference, expected, toTiles(spectator.illegalities(), rows, columns), deltaDetail);
+    }
+
+    /**
+     * Check the marks a DomainMask allows against BoardCells.canPlace, and on a legal board against the reference
+     * @param board The index of the board
+     * @param rand The generator of the board
+     * @param reference The reference grid
+     * @param cells The tiles of the board
+     * @param expected The illegal tiles of the reference
+     */
+    private void checkDomain(long board, Random rand, MarupekeGrid reference, byte[] cells, boolean[] expected)
+    {
+        int rows = reference.getSize();
+        int columns = reference.getColumns();
+        DomainMask whole = DomainMask.of(reference);
+        DomainMask incremental = new DomainMask(rows, columns);
+
+        List<Integer> order = new ArrayList<>(cells.length);
+        List<Integer> removed = new ArrayList<>();
+        for(int tile = 0; tile < cells.length; tile++)
+        {
+            if(cells[tile] != BoardCells.BLANK)
+            {
+                order.add(tile);
+            }
+            else if(rand.nextInt(4) == 0)
+            {
+                removed.add(tile);
+            }
+        }
+        int marked = order.size();
+        order.addAll(removed);
+        Collections.shuffle(order, rand);
+        for(int tile : order)
+        {
+            byte mark = cells[tile] != BoardCells.BLANK ? cells[tile] : (byte) (BoardCells.SOLID + rand.nextInt(3));
+            incremental.place(tile / columns, tile % columns, mark);
+        }
+
+        //marks put on blank tiles and taken off again have to leave the mask as if they were never there
+        Collections.shuffle(removed, rand);
+        for(int tile : removed)
+        {
+            incremental.remove(tile / columns, tile % columns);
+        }
+
+        StringBuilder detail = new StringBuilder();
+
+        //a mark changed and put back again has to leave the mask as it was
+        for(int sample = 0; sample < 4; sample++)
+        {
+            int tile = rand.nextInt(cells.length);
+            if(cells[tile] != BoardCells.CROSS && cells[tile] != BoardCells.NOUGHT)
+            {
+                continue;
+            }
+
+            boolean legal = BoardCells.canPlace(cells, rows, columns, tile / columns, tile % columns,
+                    BoardCells.opposite(cells[tile]));
+            if(incremental.change(tile / columns, tile % columns) != legal)
+            {
+                detail.append(" changing ").append(tile / columns).append(',').append(tile % columns)
+                        .append(" legal ").append(legal);
+            }
+            else if(legal)
+            {
+                //on an illegal board changing back can make three in a row, so put the mark back directly
+                incremental.remove(tile / columns, tile % columns);
+                incremental.place(tile / columns, tile % columns, cells[tile]);
+            }
+        }
+
+        int[] allowedCounts = new int[2];
+        for(int tile = 0; tile < cells.length; tile++)
+        {
+            int row = tile / columns;
+            int column = tile % columns;
+            int allowed = 0;
+
+            if(cells[tile] == BoardCells.BLANK)
+            {
+                allowed |= BoardCells.canPlace(cells, rows, columns, row, column, BoardCells.CROSS) ? DomainMask.CROSS_ALLOWED : 0;
+                allowed |= BoardCells.canPlace(cells, rows, columns, row, column, BoardCells.NOUGHT) ? DomainMask.NOUGHT_ALLOWED : 0;
+            }
+            allowedCounts[0] += allowed & DomainMask.CROSS_ALLOWED;
+            allowedCounts[1] += allowed >> 1;
+
+            if(whole.allowed(row, column) != allowed || incremental.allowed(row, column) != allowed)
+            {
+                detail.append(" ").append(row).append(',').append(column).append(" allows ").append(allowed)
+                        .append(" mask ").append(whole.allowed(row, column)).append('/').append(incremental.allowed(row, column));
+            }
+        }
+
+        if(incremental.candidateCount(BoardCells.CROSS) != allowedCounts[0] ||
+                incremental.candidateCount(BoardCells.NOUGHT) != allowedCounts[1])
+        {
+            detail.append(" candidates ").append(incremental.candidateCount(BoardCells.CROSS)).append('/')
+                    .append(incremental.candidateCount(BoardCells.NOUGHT));
+        }
+
+        //on a legal board an allowed mark is exactly one that keeps the board legal
+        if(countTrue(expected) == 0 && marked < cells.length)
+        {
+            for(int sample = 0; sample < 4; sample++)
+            {
+                int tile = rand.nextInt(cells.length);
+                if(cells[tile] != BoardCells.BLANK)
+                {
+                    continue;
+                }
+
+                for(byte mark = BoardCells.CROSS; mark <= BoardCells.NOUGHT; mark++)
+                {
+                    MarupekeGrid trial = reference.copy();
+                    trial.reinitializeTile(tile / columns, tile % columns, MARKS[mark], false);
+
+                    if(trial.isLegal() != whole.allows(tile / columns, tile % columns, mark))
+                    {
+                        detail.append(" placing ").append(MARKS[mark]).append(" at ").append(tile / columns)
+                                .append(',').append(tile % columns).append(" legal ").append(trial.isLegal());
+                    }
+                }
+            }
+        }
+
+        compare(7, board, reference, expected, expected, detail.length() == 0 ? null : detail.toString());
+    }
+
+    /**
+     * Check RunRule and VariantMarupekeGrid with a rule other than the standard one against a brute force check
+     * @param board The index of the board
+     * @param rand The generator of the board
+     * @param reference The reference grid, only used to print the board
+     * @param cells The tiles of the board
+     * @param rule The rule to check
+     */
+    private void checkVariant(long board, Random rand, MarupekeGrid reference, byte[] cells, RunRule rule)
+    {
+        int rows = reference.getSize();
+        int columns = reference.getColumns();
+        boolean[] expected = bruteForceIllegal(cells, rows, columns, rule.getRunLength(), rule.isWrap());
+        String ruleName = "rule " + rule.getRunLength() + (rule.isWrap() ? " wrapped" : "");
+
+        boolean[] illegal = new boolean[rows * columns];
+        int count = rule.findIllegal(cells, rows, columns, illegal);
+        compare(8, board, reference, expected, illegal, count != countTrue(illegal) ? ruleName + " count " + count : null);
+
+        VariantMarupekeGrid variant = new VariantMarupekeGrid(rows, columns, rule);
+        fill(variant, cells);
+        boolean[] actual = toTiles(variant.illegalities(), rows, columns);
+        compare(8, board, reference, expected, actual, Arrays.equals(expected, actual) ? null : ruleName);
+
+        fillIncrementally(board, rand, reference, new VariantMarupekeGrid(rows, columns, rule), cells, 8, expected);
+
+        //on a board that keeps to the rule a mark fits a tile exactly when the board still keeps to it after
+        if(countTrue(expected) == 0)
+        {
+            StringBuilder detail = new StringBuilder();
+            for(int sample = 0; sample < 4; sample++)
+            {
+                int tile = rand.nextInt(cells.length);
+                if(cells[tile] != BoardCells.BLANK)
+                {
+                    continue;
+                }
+
+                for(byte mark = BoardCells.CROSS; mark <= BoardCells.NOUGHT; mark++)
+                {
+                    byte[] trial = cells.clone();
+                    trial[tile] = mark;
+                    boolean legal = countTrue(bruteForceIllegal(trial, rows, columns, rule.getRunLength(), rule.isWrap())) == 0;
+
+                    if(legal != rule.canPlace(cells, rows, columns, tile / columns, tile % columns, mark))
+                    {
+                        detail.append(" placing ").append(MARKS[mark]).append(" at ").append(tile / columns)
+                                .append(',').append(tile % columns).append(" legal ").append(legal);
+                    }
+                }
+            }
+            compare(8, board, reference, expected, expected, detail.length() == 0 ? null : ruleName + detail);
+        }
+    }
+
+    /**
+     * Find the tiles breaking a rule by checking every line of runLength tiles on the board, in every
+     * direction from every tile, and reporting all but the ends of each line that is one mark
+     * @param cells The tiles of the board
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param runLength The shortest run that breaks the rule
+     * @param wrap True if lines wrap round the edges of the board
+     * @return True for each tile breaking the rule
+     */
+    private static boolean[] bruteForceIllegal(byte[] cells, int rows, int columns, int runLength, boolean wrap)
+    {
+        int[][] directions = {{0, 1}, {1, 0}, {1, 1}, {1, -1}};
+        boolean[] illegal = new boolean[rows * columns];
+        int[] line = new int[runLength];
+
+        for(int tile = 0; tile < cells.length; tile++)
+        {
+            for(int[] direction : directions)
+            {
+                boolean oneMark = cells[tile] == BoardCells.CROSS || cells[tile] == BoardCells.NOUGHT;
+
+                for(int step = 0; step < runLength && oneMark; step++)
+                {
+                    int row = tile / columns + step * direction[0];
+                    int column = tile % columns + step * direction[1];
+
+                    if(wrap)
+                    {
+                        row = Math.floorMod(row, rows);
+                        column = Math.floorMod(column, columns);
+                    }
+                    else if(row >= rows || column < 0 || column >= columns)
+                    {
+                        oneMark = false;
+                        break;
+                    }
+                    line[step] = row * columns + column;
+                    oneMark = cells[line[step]] == cells[tile];
+
+                    //a wrapped line shorter than the run comes back round to a tile already in it
+                    for(int before = 0; before < step && oneMark; before++)
+                    {
+                        oneMark = line[before] != line[step];
+                    }
+                }
+
+                for(int step = 1; step < runLength - 1 && oneMark; step++)
+                {
+                    illegal[line[step]] = true;
+                }
+            }
+        }
+        return illegal;
+    }
+
+    /**
+     * Check a grid that should hold the same board as the reference
+     * @param engine The index of the engine being checked
+     * @param board The index of the board
+     * @param reference The reference grid
+     * @param expected The illegal tiles of the reference
+     * @param expectedBlanks The number of blank tiles of the reference
+     * @param expectedComplete Whether the reference is complete
+     * @param grid The grid to check
+     */
+    private void compareGrid(int engine, long board, MarupekeGrid reference, boolean[] expected,
+                             int expectedBlanks, boolean expectedComplete, MarupekeGrid grid)
+    {
+        boolean[] actual = toTiles(grid.illegalities(), grid.getSize(), grid.getColumns());
+        String detail = null;
+
+        //illegalities() recounts the blank tiles as a side effect, so this checks that too
+        if(grid.blankTiles != expectedBlanks || grid.isPuzzleComplete() != expectedComplete)
+        {
+            detail = "blanks " + grid.blankTiles + " complete " + grid.isPuzzleComplete();
+        }
+        compare(engine, board, reference, expected, actual, detail);
+    }
+
+    /**
+     * Record a mismatch if an engine reported different illegal tiles or had some other difference
+     * @param engine The index of the engine being checked
+     * @param board The index of the board
+     * @param reference The reference grid
+     * @param expected The illegal tiles of the reference
+     * @param actual The illegal tiles reported by the engine
+     * @param detail Description of any other difference, null if there was none
+     */
+    private void compare(int engine, long board, MarupekeGrid reference, boolean[] expected, boolean[] actual, String detail)
+    {
+        if(detail == null && Arrays.equals(expected, actual))
+        {
+            return;
+        }
+
+        mismatches[engine]++;
+        if(reports++ < MAX_REPORTS)
+        {
+            int columns = reference.getColumns();
+            System.out.println(ENGINES[engine] + " mismatch on board " + board + " (seed " + seed + ")");
+            System.out.println(reference);
+            System.out.println("expected:" + tileList(expected, columns));
+            System.out.println("actual:  " + tileList(actual, columns));
+            if(detail != null)
+            {
+                System.out.println(detail);
+            }
+        }
+    }
+
+    /**
+     * Run BatchValidator on the boards waiting in each format and check its verdicts
+     * @throws IOException if the boards cannot be written out or read back
+     */
+    private void runBatches() throws IOException
+    {
+        runBatch(false, textBatch, textExpected, textBoards);
+        runBatch(true, binaryBatch, binaryExpected, binaryBoards);
+    }
+
+    /**
+     * Run BatchValidator on a batch of boards through a temporary file and compare every verdict line
+     * @param binary True if the batch is in the binary format
+     * @param batch The boards
+     * @param expected The verdict line the reference expects for each board, without its index
+     * @param boards The index of each board in the run
+     * @throws IOException if the boards cannot be written out or read back
+     */
+    private void runBatch(boolean binary, ByteArrayOutputStream batch, List<String> expected, List<Long> boards)
+            throws IOException
+    {
+        if(expected.isEmpty())
+        {
+            return;
+        }
+
+        File file = File.createTempFile("fuzz", binary ? ".bin" : ".txt");
+        try {
+            try(FileOutputStream out = new FileOutputStream(file))
+            {
+                batch.writeTo(out);
+            }
+
+            ByteArrayOutputStream verdicts = new ByteArrayOutputStream();
+            PrintStream err = System.err;
+
+            //the validator prints a summary to standard error after every batch
+            System.setErr(new PrintStream(OutputStream.nullOutputStream()));
+            try {
+                new BatchValidator(Runtime.getRuntime().availableProcessors(), 64, binary, true,
+                        new PrintStream(verdicts, false, StandardCharsets.US_ASCII)).run(List.of(file.getPath()));
+            }
+            finally {
+                System.setErr(err);
+            }
+
+            String[] actual = new String[expected.size()];
+            for(String line : verdicts.toString(StandardCharsets.US_ASCII).split("\n"))
+            {
+                if(!line.isEmpty())
+                {
+                    int space = line.indexOf(' ');
+                    actual[Integer.parseInt(line.substring(0, space))] = line.substring(space + 1);
+                }
+            }
+
+            for(int i = 0; i < actual.length; i++)
+            {
+                if(!expected.get(i).equals(actual[i]))
+                {
+                    mismatches[6]++;
+                    if(reports++ < MAX_REPORTS)
+                    {
+                        System.out.println("batch (" + (binary ? "binary" : "text") + ") mismatch on board " +
+                                boards.get(i) + " (seed " + seed + ")");
+                        System.out.println("expected: " + expected.get(i));
+                        System.out.println("actual:   " + actual[i]);
+                    }
+                }
+            }
+        }
+        finally {
+            file.delete();
+            batch.reset();
+            expected.clear();
+            boards.clear();
+        }
+    }
+
+    /**
+     * Convert a list of tiles to one flag per tile
+     * @param tiles The row/column index of each tile
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @return True for each tile in the list
+     */
+    private static boolean[] toTiles(ArrayList<Tuple> tiles, int rows, int columns)
+    {
+        boolean[] flags = new boolean[rows * columns];
+
+        for(Tuple tile : tiles)
+        {
+            flags[(Integer) tile.getFirst() * columns + (Integer) tile.getSecond()] = true;
+        }
+        return flags;
+    }
+
+    /**
+     * Count the flags that are set
+     * @param flags The flags
+     * @return The number set
+     */
+    private static int countTrue(boolean[] flags)
+    {
+        int count = 0;
+
+        for(boolean flag : flags)
+        {
+            if(flag)
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * List the tiles that are set in the format BatchValidator uses with --verbose
+     * @param flags One flag per tile
+     * @param columns The number of columns of the board
+     * @return " row,column" for each tile set, in row order
+     */
+    private static String tileList(boolean[] flags, int columns)
+    {
+        StringBuilder list = new StringBuilder();
+
+        for(int tile = 0; tile < flags.length; tile++)
+        {
+            if(flags[tile])
+            {
+                list.append(' ').append(tile / columns).append(',').append(tile % columns);
+            }
+        }
+        return list.toString();
+    }
+
+}
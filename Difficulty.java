@@ -0,0 +1,77 @@
+import java.util.Random;
+
+/** Represents the difficulty levels a new puzzle can be generated for
+ * @author Alex Draper
+ * @version 1.5
+ */
+public enum Difficulty
+{
+
+    /**
+     * Small grids of 3 to 4 tiles
+     */
+    EASY("Easy", 3, 4),
+
+    /**
+     * Medium grids of 5 to 7 tiles
+     */
+    MEDIUM("Medium", 5, 7),
+
+    /**
+     * Large grids of 8 to 10 tiles
+     */
+    HARD("Hard", 8, 10);
+
+    private String displayName;
+    private int minSize;
+    private int maxSize;
+
+    /**
+     * Set the display name and grid size range for a Difficulty
+     * @param displayName The name shown to the user
+     * @param minSize The smallest grid size for the difficulty
+     * @param maxSize The largest grid size for the difficulty
+     */
+    private Difficulty(String displayName, int minSize, int maxSize)
+    {
+        this.displayName = displayName;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Pick a random grid size within the range of the difficulty
+     * @param rand The random number generator to use
+     * @return A grid size between the minimum and maximum size inclusive
+     */
+    public int randomSize(Random rand)
+    {
+        return rand.nextInt((maxSize - minSize) + 1) + minSize;
+    }
+
+    /**
+     * Returns the Difficulty matching the text of a difficulty button, defaults to EASY
+     * @param text The text of the button the user selected
+     * @return The matching Difficulty
+     */
+    public static Difficulty fromDisplayName(String text)
+    {
+        for(Difficulty difficulty : values())
+        {
+            if(difficulty.displayName.equals(text))
+            {
+                return difficulty;
+            }
+        }
+        return EASY;
+    }
+
+    /**
+     * Return the display name of a Difficulty
+     * @return The name shown to the user
+     */
+    public String toString()
+    {
+        return displayName;
+    }
+}
@@ -0,0 +1,414 @@
+/** Grades a puzzle by solving it the way a person would, one round of deductions at a time, and
+ * recording the hardest deduction needed. Each round fills every blank tile that pairs or gaps already
+ * force, only when there are none does the grader fall back on lookahead. When lookahead finds nothing
+ * either the puzzle has more than one solution from here, so like a player the grader makes a free
+ * choice and carries on. If a free choice later leads to three in a row the grader backtracks to it and
+ * tries the other mark, as the player would have had to, and the puzzle is graded as needing guesses.
+ * Only when every choice leads to three in a row is the puzzle left unsolved, so an unsolved grade means
+ * the puzzle has no solution.
+ *
+ * The grader works on one byte per tile (see BoardCells) in scratch arrays it keeps between puzzles,
+ * so grading allocates nothing but the result and is quick enough to run on every generated puzzle.
+ * A grader keeps state between calls so each thread should use its own.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class DifficultyGrader {
+
+    // outcomes of a round of deductions
+    private static final int CONTRADICTION = -1;
+
+    private int rows;
+    private int columns;
+
+    // the board being solved and a copy used to try out lookahead
+    private byte[] cells = new byte[0];
+    private byte[] trial = new byte[0];
+
+    // tiles forced in the current round, applied together once the round is over
+    private int[] forcedTiles = new int[0];
+    private byte[] forcedMarks = new byte[0];
+
+    // hardest technique used by the current round
+    private PuzzleGrade.Technique roundTechnique;
+
+    // free choices that can still be undone, the board before each one, its tile and mark, and the
+    // rounds, tiles deduced, lookaheads and free choices counted before it
+    private byte[][] choiceBoards = new byte[0][];
+    private int[] choiceTiles = new int[0];
+    private byte[] choiceMarks = new byte[0];
+    private int[] choiceCounts = new int[0];
+
+
+    //public methods
+
+    /**
+     * Grade a puzzle
+     * @param grid The puzzle to grade, it is not changed
+     * @return The grade of the puzzle
+     */
+    public PuzzleGrade grade(MarupekeGrid grid)
+    {
+        resize(grid.getSize(), grid.getColumns());
+        BoardCells.snapshot(grid, cells);
+        return solve();
+    }
+
+    /**
+     * Grade a puzzle held as one byte per tile
+     * @param board The puzzle to grade, it is not changed
+     * @param rows The number of rows of the puzzle
+     * @param columns The number of columns of the puzzle
+     * @return The grade of the puzzle
+     */
+    public PuzzleGrade grade(byte[] board, int rows, int columns)
+    {
+        resize(rows, columns);
+        System.arraycopy(board, 0, cells, 0, rows * columns);
+        return solve();
+    }
+
+    //private methods
+
+    /**
+     * Make sure the scratch arrays can hold a board of the supplied dimensions
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     */
+    private void resize(int rows, int columns)
+    {
+        this.rows = rows;
+        this.columns = columns;
+
+        if(cells.length < rows * columns)
+        {
+            cells = new byte[rows * columns];
+            trial = new byte[rows * columns];
+            forcedTiles = new int[rows * columns];
+            forcedMarks = new byte[rows * columns];
+
+            //every free choice fills a tile, so there can never be more choices to undo than tiles
+            choiceBoards = new byte[rows * columns][];
+            choiceTiles = new int[rows * columns];
+            choiceMarks = new byte[rows * columns];
+            choiceCounts = new int[4 * rows * columns];
+        }
+    }
+
+    /**
+     * Solve the board in the scratch array one round at a time
+     * @return The grade of the puzzle
+     */
+    private PuzzleGrade solve()
+    {
+        PuzzleGrade.Technique hardest = PuzzleGrade.Technique.NONE;
+        int rounds = 0;
+        int deduced = 0;
+        int lookaheads = 0;
+        int freeChoices = 0;
+        int choices = 0;
+
+        //the rounds only ever check the blank tiles, so givens that already break the rule are caught here
+        if(breaksRule(cells))
+        {
+            return new PuzzleGrade(hardest, rounds, deduced, lookaheads, freeChoices, false);
+        }
+
+        while(countBlanks(cells) > 0)
+        {
+            roundTechnique = PuzzleGrade.Technique.NONE;
+            int forced = deduceRound(cells);
+
+            if(forced > 0)
+            {
+                //only rounds that forced tiles count, lookahead and free choices are not rounds of deductions
+                rounds++;
+                hardest = max(hardest, roundTechnique);
+                deduced += forced;
+                continue;
+            }
+
+            if(forced == 0 && lookahead())
+            {
+                hardest = max(hardest, PuzzleGrade.Technique.LOOKAHEAD);
+                deduced++;
+                lookaheads++;
+                continue;
+            }
+
+            //no deduction left, either mark works for now so pick one and carry on
+            int tile = forced == CONTRADICTION ? -1 : freeChoiceTile();
+            if(tile >= 0)
+            {
+                byte mark = BoardCells.canPlace(cells, rows, columns, tile / columns, tile % columns, BoardCells.CROSS)
+                        ? BoardCells.CROSS : BoardCells.NOUGHT;
+                saveChoice(choices++, tile, mark, rounds, deduced, lookaheads, freeChoices);
+                cells[tile] = mark;
+                freeChoices++;
+                continue;
+            }
+
+            //three in a row, undo free choices until one can take its other mark
+            boolean resumed = false;
+            while(choices > 0 && !resumed)
+            {
+                choices--;
+                System.arraycopy(choiceBoards[choices], 0, cells, 0, rows * columns);
+                rounds = choiceCounts[4 * choices];
+                deduced = choiceCounts[4 * choices + 1];
+                lookaheads = choiceCounts[4 * choices + 2];
+                freeChoices = choiceCounts[4 * choices + 3];
+
+                int choiceTile = choiceTiles[choices];
+                byte other = BoardCells.opposite(choiceMarks[choices]);
+                if(BoardCells.canPlace(cells, rows, columns, choiceTile / columns, choiceTile % columns, other))
+                {
+                    cells[choiceTile] = other;
+                    hardest = PuzzleGrade.Technique.GUESS;
+                    deduced++;
+                    resumed = true;
+                }
+            }
+
+            if(!resumed)
+            {
+                return new PuzzleGrade(hardest, rounds, deduced, lookaheads, freeChoices, false);
+            }
+        }
+
+        return new PuzzleGrade(hardest, rounds, deduced, lookaheads, freeChoices, true);
+    }
+
+    /**
+     * Check whether the marks on a board already make three in a row
+     * @param board The board
+     * @return True if a cross or nought is part of three in a row, false if not
+     */
+    private boolean breaksRule(byte[] board)
+    {
+        for(int index = 0; index < rows * columns; index++)
+        {
+            byte mark = board[index];
+
+            //canPlace ignores the mark on the tile, so this asks whether the mark is part of three in a row
+            if((mark == BoardCells.CROSS || mark == BoardCells.NOUGHT) &&
+                    !BoardCells.canPlace(board, rows, columns, index / columns, index % columns, mark))
+            {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Find the first blank tile that can take a mark
+     * @return The index of the tile, -1 if no blank tile can take either mark
+     */
+    private int freeChoiceTile()
+    {
+        for(int index = 0; index < rows * columns; index++)
+        {
+            if(cells[index] != BoardCells.BLANK)
+            {
+                continue;
+            }
+
+            for(byte mark = BoardCells.CROSS; mark <= BoardCells.NOUGHT; mark++)
+            {
+                if(BoardCells.canPlace(cells, rows, columns, index / columns, index % columns, mark))
+                {
+                    return index;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Remember the board and counts before a free choice so it can be undone
+     * @param choice The number of free choices already remembered
+     * @param tile The index of the tile chosen
+     * @param mark The mark chosen for it
+     * @param rounds The rounds of deductions made so far
+     * @param deduced The tiles deduced so far
+     * @param lookaheads The lookaheads made so far
+     * @param freeChoices The free choices made so far
+     */
+    private void saveChoice(int choice, int tile, byte mark, int rounds, int deduced, int lookaheads, int freeChoices)
+    {
+        if(choiceBoards[choice] == null || choiceBoards[choice].length < rows * columns)
+        {
+            choiceBoards[choice] = new byte[cells.length];
+        }
+        System.arraycopy(cells, 0, choiceBoards[choice], 0, rows * columns);
+        choiceTiles[choice] = tile;
+        choiceMarks[choice] = mark;
+        choiceCounts[4 * choice] = rounds;
+        choiceCounts[4 * choice + 1] = deduced;
+        choiceCounts[4 * choice + 2] = lookaheads;
+        choiceCounts[4 * choice + 3] = freeChoices;
+    }
+
+    /**
+     * Find every blank tile that pairs or gaps force onto one mark and fill them all
+     * @param board The board to deduce on
+     * @return The number of tiles filled, or CONTRADICTION if a blank tile can take neither mark or the
+     * filled tiles make three in a row
+     */
+    private int deduceRound(byte[] board)
+    {
+        int forced = 0;
+
+        for(int index = 0; index < rows * columns; index++)
+        {
+            if(board[index] != BoardCells.BLANK)
+            {
+                continue;
+            }
+
+            int row = index / columns;
+            int column = index % columns;
+            PuzzleGrade.Technique crossBlock = blockedBy(board, row, column, BoardCells.CROSS);
+            PuzzleGrade.Technique noughtBlock = blockedBy(board, row, column, BoardCells.NOUGHT);
+
+            if(crossBlock != null && noughtBlock != null)
+            {
+                return CONTRADICTION;
+            }
+
+            if(crossBlock != null || noughtBlock != null)
+            {
+                forcedTiles[forced] = index;
+                forcedMarks[forced] = crossBlock != null ? BoardCells.NOUGHT : BoardCells.CROSS;
+                forced++;
+                roundTechnique = max(roundTechnique, crossBlock != null ? crossBlock : noughtBlock);
+            }
+        }
+
+        for(int i = 0; i < forced; i++)
+        {
+            board[forcedTiles[i]] = forcedMarks[i];
+        }
+
+        //tiles forced in the same round can still make three in a row with each other
+        for(int i = 0; i < forced; i++)
+        {
+            if(!BoardCells.canPlace(board, rows, columns, forcedTiles[i] / columns, forcedTiles[i] % columns, forcedMarks[i]))
+            {
+                return CONTRADICTION;
+            }
+        }
+        return forced;
+    }
+
+    /**
+     * Look for a blank tile where trying one mark and following the pairs and gaps it forces leads to a
+     * contradiction, and fill it with the other mark
+     * @return True if a tile was filled, false if lookahead found nothing
+     */
+    private boolean lookahead()
+    {
+        for(int index = 0; index < rows * columns; index++)
+        {
+            if(cells[index] != BoardCells.BLANK)
+            {
+                continue;
+            }
+
+            for(byte mark = BoardCells.CROSS; mark <= BoardCells.NOUGHT; mark++)
+            {
+                if(leadsToContradiction(index, mark))
+                {
+                    cells[index] = BoardCells.opposite(mark);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Try a mark on a copy of the board and keep deducing until nothing changes
+     * @param index The index of the tile to try
+     * @param mark The mark to try
+     * @return True if the deductions lead to a tile that can take neither mark, false if not
+     */
+    private boolean leadsToContradiction(int index, byte mark)
+    {
+        System.arraycopy(cells, 0, trial, 0, rows * columns);
+        trial[index] = mark;
+
+        int forced;
+        do
+        {
+            forced = deduceRound(trial);
+        }
+        while(forced > 0);
+
+        return forced == CONTRADICTION;
+    }
+
+    /**
+     * Find which deduction stops a mark going on a tile
+     * @param board The board
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark The mark to check
+     * @return PAIRS if the tile is at the end of two matching marks, GAPS if it is between two matching
+     * marks, null if the mark can go on the tile
+     */
+    private PuzzleGrade.Technique blockedBy(byte[] board, int row, int column, byte mark)
+    {
+        PuzzleGrade.Technique technique = null;
+
+        for(int direction = 0; direction < BoardCells.ROW_STEPS.length; direction++)
+        {
+            int rowStep = BoardCells.ROW_STEPS[direction];
+            int columnStep = BoardCells.COLUMN_STEPS[direction];
+            int before = BoardCells.matching(board, rows, columns, row, column, -rowStep, -columnStep, mark);
+            int after = BoardCells.matching(board, rows, columns, row, column, rowStep, columnStep, mark);
+
+            if(before == 2 || after == 2)
+            {
+                //the easiest explanation is the one a player would spot
+                return PuzzleGrade.Technique.PAIRS;
+            }
+            if(before == 1 && after == 1)
+            {
+                technique = PuzzleGrade.Technique.GAPS;
+            }
+        }
+        return technique;
+    }
+
+    /**
+     * Count the blank tiles of a board
+     * @param board The board
+     * @return The number of blank tiles
+     */
+    private int countBlanks(byte[] board)
+    {
+        int blanks = 0;
+
+        for(int index = 0; index < rows * columns; index++)
+        {
+            if(board[index] == BoardCells.BLANK)
+            {
+                blanks++;
+            }
+        }
+        return blanks;
+    }
+
+    /**
+     * Returns the harder of two techniques
+     * @param a The first technique
+     * @param b The second technique
+     * @return The technique that comes later in PuzzleGrade.Technique
+     */
+    private static PuzzleGrade.Technique max(PuzzleGrade.Technique a, PuzzleGrade.Technique b)
+    {
+        return a.compareTo(b) >= 0 ? a : b;
+    }
+
+}
@@ -0,0 +1,411 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/** Keeps track of which marks each blank tile of a board can still take without making three in a row,
+ * so a generator can choose only from tiles where a mark is legal instead of placing it and checking the
+ * whole board. Each tile has two bits in a long array, CROSS_ALLOWED and NOUGHT_ALLOWED, and for each mark
+ * the tiles allowing it are also kept in an index set so a random one can be picked in constant time.
+ *
+ * Placing a mark can only stop the same mark going on the tiles within two steps of it in a line, and
+ * taking a mark off can only change what those tiles and the tile itself allow, so placing and removing a
+ * tile both take constant time.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class DomainMask {
+
+    /**
+     * Bit set in allowed() when the tile can take a CROSS
+     */
+    public static final int CROSS_ALLOWED = 1;
+
+    /**
+     * Bit set in allowed() when the tile can take a NOUGHT
+     */
+    public static final int NOUGHT_ALLOWED = 2;
+
+    // tiles held by each long of the mask, two bits each
+    private static final int TILES_PER_WORD = Long.SIZE / 2;
+
+    private int rows;
+    private int columns;
+
+    // the board, one byte per tile (see BoardCells), and two bits per tile of allowed marks
+    private byte[] cells;
+    private long[] mask;
+
+    // for CROSS and NOUGHT, the tiles allowing the mark and where each tile is in that list, -1 if absent
+    private final int[][] candidates = new int[2][];
+    private final int[][] positions = new int[2][];
+    private final int[] candidateCounts = new int[2];
+
+
+    /**
+     * Constructor to create the mask of a blank board, every tile allows both marks
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     */
+    public DomainMask(int rows, int columns)
+    {
+        reset(rows, columns);
+    }
+
+    /**
+     * Create the mask of the marks already on a grid
+     * @param grid The grid
+     * @return The mask of the grid
+     */
+    public static DomainMask of(MarupekeGrid grid)
+    {
+        DomainMask domain = new DomainMask(grid.getSize(), grid.getColumns());
+        BoardCells.snapshot(grid, domain.cells);
+
+        for(int index = 0; index < domain.rows * domain.columns; index++)
+        {
+            domain.update(index, BoardCells.CROSS);
+            domain.update(index, BoardCells.NOUGHT);
+        }
+        return domain;
+    }
+
+    //public methods
+
+    /**
+     * Empty the board, reusing the arrays if they are big enough
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     */
+    public void reset(int rows, int columns)
+    {
+        int area = rows * columns;
+        this.rows = rows;
+        this.columns = columns;
+
+        if(cells == null || cells.length < area)
+        {
+            cells = new byte[area];
+            mask = new long[(area + TILES_PER_WORD - 1) / TILES_PER_WORD];
+            for(int list = 0; list < candidates.length; list++)
+            {
+                candidates[list] = new int[area];
+                positions[list] = new int[area];
+            }
+        }
+
+        Arrays.fill(cells, 0, area, BoardCells.BLANK);
+        Arrays.fill(mask, 0);
+        for(int list = 0; list < candidates.length; list++)
+        {
+            candidateCounts[list] = 0;
+            Arrays.fill(positions[list], -1);
+        }
+
+        for(int index = 0; index < area; index++)
+        {
+            allow(index, BoardCells.CROSS);
+            allow(index, BoardCells.NOUGHT);
+        }
+    }
+
+    /**
+     * Returns the mark on a tile
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return BLANK, SOLID, CROSS or NOUGHT as a BoardCells byte
+     */
+    public byte markAt(int row, int column)
+    {
+        return cells[row * columns + column];
+    }
+
+    /**
+     * Returns the marks a tile can take
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return CROSS_ALLOWED and NOUGHT_ALLOWED bits, 0 for a tile that is not blank or can take neither mark
+     */
+    public int allowed(int row, int column)
+    {
+        int index = row * columns + column;
+
+        return (int) (mask[index / TILES_PER_WORD] >>> (2 * (index % TILES_PER_WORD))) & 3;
+    }
+
+    /**
+     * Returns whether a blank tile can take a mark without making three in a row
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark CROSS or NOUGHT as a BoardCells byte
+     * @return True if the tile is blank and the mark is legal there, false if not
+     */
+    public boolean allows(int row, int column, byte mark)
+    {
+        return (allowed(row, column) & bit(mark)) != 0;
+    }
+
+    /**
+     * Put a mark on a blank tile and update the tiles it affects
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark SOLID, CROSS or NOUGHT as a BoardCells byte
+     * @throws IllegalStateException if the tile is not blank
+     */
+    public void place(int row, int column, byte mark) throws IllegalStateException
+    {
+        int index = row * columns + column;
+
+        if(cells[index] != BoardCells.BLANK)
+        {
+            throw new IllegalStateException("Tile " + row + "," + column + " already has a mark");
+        }
+
+        cells[index] = mark;
+        disallow(index, BoardCells.CROSS);
+        disallow(index, BoardCells.NOUGHT);
+
+        if(mark != BoardCells.CROSS && mark != BoardCells.NOUGHT)
+        {
+            //a solid tile breaks lines, it can never stop a mark going anywhere
+            return;
+        }
+
+        //the new mark can only make three in a row along a line through it, with a tile one step away
+        //that is the end of a pair or the gap between two marks, or a tile two steps away past a pair
+        for(int direction = 0; direction < BoardCells.ROW_STEPS.length; direction++)
+        {
+            int rowStep = BoardCells.ROW_STEPS[direction];
+            int columnStep = BoardCells.COLUMN_STEPS[direction];
+
+            int before2 = indexAt(row - 2 * rowStep, column - 2 * columnStep);
+            int before1 = indexAt(row - rowStep, column - columnStep);
+            int after1 = indexAt(row + rowStep, column + columnStep);
+            int after2 = indexAt(row + 2 * rowStep, column + 2 * columnStep);
+
+            boolean matchBefore2 = before2 >= 0 && cells[before2] == mark;
+            boolean matchBefore1 = before1 >= 0 && cells[before1] == mark;
+            boolean matchAfter1 = after1 >= 0 && cells[after1] == mark;
+            boolean matchAfter2 = after2 >= 0 && cells[after2] == mark;
+
+            if(after1 >= 0 && (matchBefore1 || matchAfter2))
+            {
+                disallow(after1, mark);
+            }
+            if(before1 >= 0 && (matchAfter1 || matchBefore2))
+            {
+                disallow(before1, mark);
+            }
+            if(after2 >= 0 && matchAfter1)
+            {
+                disallow(after2, mark);
+            }
+            if(before2 >= 0 && matchBefore1)
+            {
+                disallow(before2, mark);
+            }
+        }
+    }
+
+    /**
+     * Take the mark off a tile, leaving it blank, and update the tiles it affects
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return The mark that was on the tile as a BoardCells byte
+     * @throws IllegalStateException if the tile is already blank
+     */
+    public byte remove(int row, int column) throws IllegalStateException
+    {
+        int index = row * columns + column;
+        byte mark = cells[index];
+
+        if(mark == BoardCells.BLANK)
+        {
+            throw new IllegalStateException("Tile " + row + "," + column + " has no mark");
+        }
+
+        cells[index] = BoardCells.BLANK;
+        update(index, BoardCells.CROSS);
+        update(index, BoardCells.NOUGHT);
+
+        //a cross or nought only stopped its own mark within two steps, a solid broke lines for both marks
+        for(int direction = 0; direction < BoardCells.ROW_STEPS.length; direction++)
+        {
+            for(int step = -2; step <= 2; step++)
+            {
+                int other = indexAt(row + step * BoardCells.ROW_STEPS[direction],
+                        column + step * BoardCells.COLUMN_STEPS[direction]);
+
+                if(step == 0 || other < 0)
+                {
+                    continue;
+                }
+                if(mark != BoardCells.NOUGHT)
+                {
+                    update(other, BoardCells.CROSS);
+                }
+                if(mark != BoardCells.CROSS)
+                {
+                    update(other, BoardCells.NOUGHT);
+                }
+            }
+        }
+        return mark;
+    }
+
+    /**
+     * Change the cross or nought on a tile to the other mark, if that does not make three in a row
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return True if the mark was changed, false if the other mark is not legal there
+     * @throws IllegalStateException if the tile has no cross or nought
+     */
+    public boolean change(int row, int column) throws IllegalStateException
+    {
+        byte mark = cells[row * columns + column];
+
+        if(mark != BoardCells.CROSS && mark != BoardCells.NOUGHT)
+        {
+            throw new IllegalStateException("Tile " + row + "," + column + " has no cross or nought");
+        }
+
+        //canPlace ignores the mark on the tile itself, so this is what the tile would allow once blank
+        byte other = BoardCells.opposite(mark);
+        if(!BoardCells.canPlace(cells, rows, columns, row, column, other))
+        {
+            return false;
+        }
+
+        remove(row, column);
+        place(row, column, other);
+        return true;
+    }
+
+    /**
+     * Returns the number of tiles that can take a mark
+     * @param mark CROSS or NOUGHT as a BoardCells byte
+     * @return the number of tiles
+     */
+    public int candidateCount(byte mark)
+    {
+        return candidateCounts[list(mark)];
+    }
+
+    /**
+     * Pick a random tile that can take a mark
+     * @param mark CROSS or NOUGHT as a BoardCells byte
+     * @param rand The generator to pick with
+     * @return The index (row * columns + column) of the tile, -1 if no tile can take the mark
+     */
+    public int randomCandidate(byte mark, Random rand)
+    {
+        int list = list(mark);
+
+        return candidateCounts[list] == 0 ? -1 : candidates[list][rand.nextInt(candidateCounts[list])];
+    }
+
+    /**
+     * Returns the number of rows of the board
+     * @return the number of rows
+     */
+    public int getRows()
+    {
+        return rows;
+    }
+
+    /**
+     * Returns the number of columns of the board
+     * @return the number of columns
+     */
+    public int getColumns()
+    {
+        return columns;
+    }
+
+    //private methods
+
+    /**
+     * Work out again whether a tile can take a mark
+     * @param index The index of the tile
+     * @param mark CROSS or NOUGHT
+     */
+    private void update(int index, byte mark)
+    {
+        if(cells[index] == BoardCells.BLANK &&
+                BoardCells.canPlace(cells, rows, columns, index / columns, index % columns, mark))
+        {
+            allow(index, mark);
+        }
+        else
+        {
+            disallow(index, mark);
+        }
+    }
+
+    /**
+     * Returns the index of a tile
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return row * columns + column, -1 if the tile is off the board
+     */
+    private int indexAt(int row, int column)
+    {
+        return row < 0 || row >= rows || column < 0 || column >= columns ? -1 : row * columns + column;
+    }
+
+    /**
+     * Mark a tile as able to take a mark, adding it to the candidates of the mark
+     * @param index The index of the tile
+     * @param mark CROSS or NOUGHT
+     */
+    private void allow(int index, byte mark)
+    {
+        int list = list(mark);
+
+        if(positions[list][index] < 0)
+        {
+            positions[list][index] = candidateCounts[list];
+            candidates[list][candidateCounts[list]++] = index;
+            mask[index / TILES_PER_WORD] |= (long) bit(mark) << (2 * (index % TILES_PER_WORD));
+        }
+    }
+
+    /**
+     * Mark a tile as unable to take a mark, moving the last candidate into its place in the list
+     * @param index The index of the tile
+     * @param mark CROSS or NOUGHT
+     */
+    private void disallow(int index, byte mark)
+    {
+        int list = list(mark);
+        int position = positions[list][index];
+
+        if(position >= 0)
+        {
+            int last = candidates[list][--candidateCounts[list]];
+            candidates[list][position] = last;
+            positions[list][last] = position;
+            positions[list][index] = -1;
+            mask[index / TILES_PER_WORD] &= ~((long) bit(mark) << (2 * (index % TILES_PER_WORD)));
+        }
+    }
+
+    /**
+     * Returns the allowed bit of a mark
+     * @param mark CROSS or NOUGHT
+     * @return CROSS_ALLOWED or NOUGHT_ALLOWED
+     */
+    private static int bit(byte mark)
+    {
+        return mark == BoardCells.CROSS ? CROSS_ALLOWED : NOUGHT_ALLOWED;
+    }
+
+    /**
+     * Returns which candidate list a mark uses
+     * @param mark CROSS or NOUGHT
+     * @return 0 for CROSS, 1 for NOUGHT
+     */
+    private static int list(byte mark)
+    {
+        return mark == BoardCells.CROSS ? 0 : 1;
+    }
+
+}
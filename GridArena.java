@@ -0,0 +1,72 @@
+import java.util.ArrayDeque;
+
+/** A small pool of grids to reuse instead of allocating a new grid, and all of its tiles, for every
+ * puzzle. Each thread has its own arena from local() so no locking is needed; a grid acquired from
+ * an arena should be released back to the same arena once it is no longer needed.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public final class GridArena {
+
+    // grids beyond this many are left for the garbage collector rather than kept
+    private static final int MAX_POOLED = 8;
+
+    private static final ThreadLocal<GridArena> LOCAL = ThreadLocal.withInitial(GridArena::new);
+
+    private final ArrayDeque<MarupekeGrid> free = new ArrayDeque<>(MAX_POOLED);
+
+    //public methods
+
+    /**
+     * Returns the arena of the current thread
+     * @return the arena of the current thread
+     */
+    public static GridArena local()
+    {
+        return LOCAL.get();
+    }
+
+    /**
+     * Take a blank, editable grid of the supplied size, reusing a released grid if one is big enough
+     * @param size The size of the grid wanted
+     * @return A blank grid of the size
+     */
+    public MarupekeGrid acquire(int size)
+    {
+        //look at each pooled grid once, putting back any that are too small
+        for(int i = free.size(); i > 0; i--)
+        {
+            MarupekeGrid grid = free.pollFirst();
+
+            if(grid.getRowCapacity() >= size && grid.getColumnCapacity() >= size)
+            {
+                grid.reset(size);
+                return grid;
+            }
+            free.addLast(grid);
+        }
+        return new MarupekeGrid(size);
+    }
+
+    /**
+     * Hand a grid back to be reused, the grid must not be used by the caller afterwards
+     * @param grid The grid to hand back
+     */
+    public void release(MarupekeGrid grid)
+    {
+        if(free.size() < MAX_POOLED && grid.getClass() == MarupekeGrid.class)
+        {
+            free.addFirst(grid);
+        }
+    }
+
+    /**
+     * Returns the number of grids waiting to be reused
+     * @return the number of pooled grids
+     */
+    public int available()
+    {
+        return free.size();
+    }
+
+}
@@ -0,0 +1,26 @@
+/** Listener notified when the tiles of a MarupekeGrid change, so a display only has to update
+ * the tiles that were affected rather than re-scanning the whole grid
+ * @author Alex Draper
+ * @version 1.5
+ */
+public interface GridListener
+{
+
+    /**
+     * Called after the mark of a tile has changed
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param oldMark The mark the tile had before the change
+     * @param newMark The mark the tile has now
+     */
+    void tileChanged(int row, int column, Mark oldMark, Mark newMark);
+
+    /**
+     * Called after a tile has started or stopped breaking the rules of the puzzle, a tile is illegal
+     * when it is the middle of three matching marks, the same tiles reported by illegalities()
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param illegal True if the tile is now illegal, false if it is now legal
+     */
+    void legalityChanged(int row, int column, boolean illegal);
+}
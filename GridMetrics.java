@@ -0,0 +1,423 @@
+import java.util.concurrent.atomic.LongAdder;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/** Counters, latency histograms and JDK Flight Recorder events for the hot paths of the puzzle:
+ * checking a grid, generating a puzzle, solving and user mark requests.
+ *
+ * Collection is off until setEnabled(true) is called and can be switched at any time. While it is
+ * off every begin method returns null and every end method returns straight away, so the cost on
+ * the hot paths is one volatile read and nothing is allocated.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public final class GridMetrics {
+
+    private static volatile boolean enabled = false;
+
+    // validation
+    private static final LongAdder validations = new LongAdder();
+    private static final LongAdder tilesScanned = new LongAdder();
+    private static final LatencyHistogram validationTime = new LatencyHistogram();
+
+    // generation
+    private static final LongAdder generations = new LongAdder();
+    private static final LongAdder generationAttempts = new LongAdder();
+    private static final LongAdder generationRejections = new LongAdder();
+    private static final LatencyHistogram generationTime = new LatencyHistogram();
+
+    // solving
+    private static final LongAdder solves = new LongAdder();
+    private static final LongAdder solveNodes = new LongAdder();
+    private static final LatencyHistogram solveTime = new LatencyHistogram();
+
+    // user mark requests
+    private static final LongAdder markRequests = new LongAdder();
+    private static final LongAdder markRejections = new LongAdder();
+
+
+    /**
+     * Only static methods, never constructed
+     */
+    private GridMetrics()
+    {
+    }
+
+    //public methods
+
+    /**
+     * Returns whether metrics are currently being collected
+     * @return True if collecting, false if not
+     */
+    public static boolean isEnabled()
+    {
+        return enabled;
+    }
+
+    /**
+     * Switch collection of metrics on or off
+     * @param collect True to start collecting, false to stop
+     */
+    public static void setEnabled(boolean collect)
+    {
+        enabled = collect;
+    }
+
+    /**
+     * Start timing a check of a grid
+     * @return The event to pass to endValidation, null if metrics are off
+     */
+    public static ValidationEvent beginValidation()
+    {
+        if(!enabled)
+        {
+            return null;
+        }
+        ValidationEvent event = new ValidationEvent();
+        event.start();
+        return event;
+    }
+
+    /**
+     * Finish timing a check of a grid
+     * @param event The event returned by beginValidation, may be null
+     * @param tiles The number of tiles scanned
+     * @param illegalTiles The number of tiles found breaking the rules
+     * @param blankTiles The number of blank tiles found
+     */
+    public static void endValidation(ValidationEvent event, int tiles, int illegalTiles, int blankTiles)
+    {
+        if(event == null)
+        {
+            return;
+        }
+        validationTime.record(event.stop());
+        validations.increment();
+        tilesScanned.add(tiles);
+
+        if(event.shouldCommit())
+        {
+            event.tiles = tiles;
+            event.illegalTiles = illegalTiles;
+            event.blankTiles = blankTiles;
+            event.commit();
+        }
+    }
+
+    /**
+     * Start timing the generation of a puzzle
+     * @return The event to pass to endGeneration, null if metrics are off
+     */
+    public static GenerationEvent beginGeneration()
+    {
+        if(!enabled)
+        {
+            return null;
+        }
+        GenerationEvent event = new GenerationEvent();
+        event.start();
+        return event;
+    }
+
+    /**
+     * Finish timing the generation of a puzzle
+     * @param event The event returned by beginGeneration, may be null
+     * @param size The size of the generated grid
+     * @param attempts The number of marks tried
+     * @param rejections The number of marks tried that were illegal and taken back
+     */
+    public static void endGeneration(GenerationEvent event, int size, long attempts, long rejections)
+    {
+        if(event == null)
+        {
+            return;
+        }
+        generationTime.record(event.stop());
+        generations.increment();
+        generationAttempts.add(attempts);
+        generationRejections.add(rejections);
+
+        if(event.shouldCommit())
+        {
+            event.size = size;
+            event.attempts = attempts;
+            event.rejections = rejections;
+            event.commit();
+        }
+    }
+
+    /**
+     * Start timing a solve of a puzzle
+     * @return The event to pass to endSolve, null if metrics are off
+     */
+    public static SolveEvent beginSolve()
+    {
+        if(!enabled)
+        {
+            return null;
+        }
+        SolveEvent event = new SolveEvent();
+        event.start();
+        return event;
+    }
+
+    /**
+     * Finish timing a solve of a puzzle
+     * @param event The event returned by beginSolve, may be null
+     * @param size The size of the grid solved
+     * @param solutions The number of solutions found
+     * @param nodes The number of positions the solver visited
+     */
+    public static void endSolve(SolveEvent event, int size, long solutions, long nodes)
+    {
+        if(event == null)
+        {
+            return;
+        }
+        solveTime.record(event.stop());
+        solves.increment();
+        solveNodes.add(nodes);
+
+        if(event.shouldCommit())
+        {
+            event.size = size;
+            event.solutions = solutions;
+            event.nodes = nodes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Count a user mark request
+     * @param accepted True if the tile was updated, false if the request was rejected
+     */
+    public static void markRequest(boolean accepted)
+    {
+        if(!enabled)
+        {
+            return;
+        }
+        markRequests.increment();
+        if(!accepted)
+        {
+            markRejections.increment();
+        }
+    }
+
+    /**
+     * Returns the number of grid checks recorded
+     * @return the number of checks
+     */
+    public static long getValidations()
+    {
+        return validations.sum();
+    }
+
+    /**
+     * Returns the number of tiles scanned by grid checks
+     * @return the number of tiles
+     */
+    public static long getTilesScanned()
+    {
+        return tilesScanned.sum();
+    }
+
+    /**
+     * Returns the number of puzzles generated
+     * @return the number of puzzles
+     */
+    public static long getGenerations()
+    {
+        return generations.sum();
+    }
+
+    /**
+     * Returns the number of marks tried while generating puzzles
+     * @return the number of attempts
+     */
+    public static long getGenerationAttempts()
+    {
+        return generationAttempts.sum();
+    }
+
+    /**
+     * Returns the fraction of marks tried while generating puzzles that had to be taken back
+     * @return the rejection rate between 0 and 1
+     */
+    public static double getGenerationRejectionRate()
+    {
+        long attempts = generationAttempts.sum();
+        return attempts == 0 ? 0 : (double) generationRejections.sum() / attempts;
+    }
+
+    /**
+     * Returns the number of user mark requests
+     * @return the number of requests
+     */
+    public static long getMarkRequests()
+    {
+        return markRequests.sum();
+    }
+
+    /**
+     * Returns the number of user mark requests that were rejected
+     * @return the number of rejected requests
+     */
+    public static long getMarkRejections()
+    {
+        return markRejections.sum();
+    }
+
+    /**
+     * Returns the histogram of grid check durations
+     * @return the validation histogram
+     */
+    public static LatencyHistogram getValidationTime()
+    {
+        return validationTime;
+    }
+
+    /**
+     * Returns the histogram of puzzle generation durations
+     * @return the generation histogram
+     */
+    public static LatencyHistogram getGenerationTime()
+    {
+        return generationTime;
+    }
+
+    /**
+     * Returns the histogram of solve durations
+     * @return the solve histogram
+     */
+    public static LatencyHistogram getSolveTime()
+    {
+        return solveTime;
+    }
+
+    /**
+     * Forget everything collected so far
+     */
+    public static void reset()
+    {
+        validations.reset();
+        tilesScanned.reset();
+        validationTime.reset();
+        generations.reset();
+        generationAttempts.reset();
+        generationRejections.reset();
+        generationTime.reset();
+        solves.reset();
+        solveNodes.reset();
+        solveTime.reset();
+        markRequests.reset();
+        markRejections.reset();
+    }
+
+    /**
+     * Returns a multi line summary of everything collected
+     * @return the summary of the metrics
+     */
+    public static String report()
+    {
+        return "validations: " + validations.sum() + " tiles scanned: " + tilesScanned.sum() + "\n" +
+                "  time: " + validationTime + "\n" +
+                "generations: " + generations.sum() + " attempts: " + generationAttempts.sum() +
+                String.format(" rejection rate: %.3f", getGenerationRejectionRate()) + "\n" +
+                "  time: " + generationTime + "\n" +
+                "solves: " + solves.sum() + " nodes: " + solveNodes.sum() + "\n" +
+                "  time: " + solveTime + "\n" +
+                "mark requests: " + markRequests.sum() + " rejected: " + markRejections.sum() + "\n";
+    }
+
+    //events
+
+    /**
+     * Flight Recorder event that also keeps its own start time for the histograms, the start time is
+     * transient so it is not written to the recording
+     */
+    abstract static class TimedEvent extends Event {
+
+        transient long startNanos;
+
+        /**
+         * Start the event timer and the Flight Recorder duration
+         */
+        void start()
+        {
+            startNanos = System.nanoTime();
+            begin();
+        }
+
+        /**
+         * Stop the Flight Recorder duration
+         * @return The time since start() in nanoseconds
+         */
+        long stop()
+        {
+            end();
+            return System.nanoTime() - startNanos;
+        }
+    }
+
+    /**
+     * Recorded for every check of a grid against the rules
+     */
+    @Name("marupeke.Validation")
+    @Label("Grid Validation")
+    @Category("Marupeke")
+    @Description("A check of a grid for tiles that break the rules")
+    public static class ValidationEvent extends TimedEvent {
+
+        @Label("Tiles Scanned")
+        int tiles;
+
+        @Label("Illegal Tiles")
+        int illegalTiles;
+
+        @Label("Blank Tiles")
+        int blankTiles;
+    }
+
+    /**
+     * Recorded for every puzzle generated
+     */
+    @Name("marupeke.Generation")
+    @Label("Puzzle Generation")
+    @Category("Marupeke")
+    @Description("The generation of a random puzzle")
+    public static class GenerationEvent extends TimedEvent {
+
+        @Label("Grid Size")
+        int size;
+
+        @Label("Attempts")
+        long attempts;
+
+        @Label("Rejections")
+        long rejections;
+    }
+
+    /**
+     * Recorded for every solve of a puzzle
+     */
+    @Name("marupeke.Solve")
+    @Label("Puzzle Solve")
+    @Category("Marupeke")
+    @Description("A search for the solutions of a puzzle")
+    public static class SolveEvent extends TimedEvent {
+
+        @Label("Grid Size")
+        int size;
+
+        @Label("Solutions")
+        long solutions;
+
+        @Label("Nodes Visited")
+        long nodes;
+    }
+
+}
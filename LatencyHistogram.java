@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Lock free histogram of durations in nanoseconds. Values are counted in power of two buckets so
+ * recording is a couple of atomic adds with no allocation, and percentiles are accurate to within
+ * a factor of two, which is plenty for spotting where the time goes.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class LatencyHistogram {
+
+    // bucket i counts values with i significant bits, so bucket 0 is 0ns and bucket 63 holds the largest longs
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder total = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    //public methods
+
+    /**
+     * Record a single duration
+     * @param nanos The duration in nanoseconds, negative values are counted as 0
+     */
+    public void record(long nanos)
+    {
+        long value = Math.max(0, nanos);
+
+        buckets.incrementAndGet(Long.SIZE - Long.numberOfLeadingZeros(value));
+        count.increment();
+        total.add(value);
+        max.accumulate(value);
+    }
+
+    /**
+     * Returns the number of durations recorded
+     * @return the number of durations
+     */
+    public long getCount()
+    {
+        return count.sum();
+    }
+
+    /**
+     * Returns the mean of the recorded durations
+     * @return the mean in nanoseconds, 0 if nothing has been recorded
+     */
+    public double getMean()
+    {
+        long recorded = count.sum();
+        return recorded == 0 ? 0 : (double) total.sum() / recorded;
+    }
+
+    /**
+     * Returns the longest recorded duration
+     * @return the maximum in nanoseconds
+     */
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Returns an upper bound of the duration the supplied fraction of recordings were at or below
+     * @param percentile The percentile wanted, between 0 and 100
+     * @return The upper bound of the bucket holding the percentile in nanoseconds, 0 if nothing has been recorded
+     */
+    public long getPercentile(double percentile)
+    {
+        long recorded = 0;
+        long[] counts = new long[BUCKETS];
+        for(int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            counts[bucket] = buckets.get(bucket);
+            recorded += counts[bucket];
+        }
+
+        long target = (long) Math.ceil(recorded * percentile / 100.0);
+        long seen = 0;
+        for(int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            seen += counts[bucket];
+            if(seen >= target && seen > 0)
+            {
+                //never report more than the largest value actually seen
+                return Math.min(upperBound(bucket), getMax());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Forget everything recorded so far
+     */
+    public void reset()
+    {
+        for(int bucket = 0; bucket < BUCKETS; bucket++)
+        {
+            buckets.set(bucket, 0);
+        }
+        count.reset();
+        total.reset();
+        max.reset();
+    }
+
+    /**
+     * Returns a one line summary of the histogram in microseconds
+     * @return the summary of the histogram
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                getCount(), getMean() / 1000.0,
+                getPercentile(50) / 1000.0, getPercentile(99) / 1000.0,
+                getPercentile(99.9) / 1000.0, getMax() / 1000.0);
+    }
+
+    //private methods
+
+    /**
+     * Returns the largest value that is counted in a bucket
+     * @param bucket The index of the bucket
+     * @return The largest value of the bucket
+     */
+    private static long upperBound(int bucket)
+    {
+        return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+
+}
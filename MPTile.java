@@ -52,6 +52,25 @@ public class MPTile
         this.editable = editableState;
     }
 
+    /**
+     * Return the tile to a blank, editable tile so it can be reused for a new puzzle
+     */
+    public void reset()
+    {
+        reset(Mark.BLANK, true);
+    }
+
+    /**
+     * Set the mark and editable state of the tile whether or not it is currently editable
+     * @param mark The mark to change the tile too
+     * @param editableState The editable state to change the tile too
+     */
+    public void reset(Mark mark, boolean editableState)
+    {
+        this.mark = mark;
+        this.editable = editableState;
+    }
+
     /**
      * Print out the String representation of the Tile, defined by the Mark of the Tile
      * @return The String representation of the Tile
@@ -2,6 +2,7 @@
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 
 /** Represents the board of the Marupeke Puzzle
@@ -10,11 +11,27 @@ import java.util.Random;
  */
 public class MarupekeGrid {
 
-    final int gridSize;
+    // the current dimensions, a grid that has been reset can be smaller than its tile array
+    int gridSize;
+    int gridColumns;
     final MPTile grid[][];
 
     int blankTiles;
 
+    // listeners told about tile and legality changes
+    private final List<GridListener> listeners = new ArrayList<>();
+
+    // legality of each tile as last reported to the listeners, only kept while there are listeners
+    private boolean[][] illegalState;
+
+    // the rule every plain grid is checked with
+    private static final RunRule STANDARD_RULE = RunRule.standard();
+
+    // marks each tile can still take while generating a puzzle, one per generating thread
+    private static final ThreadLocal<DomainMask> GENERATOR_DOMAINS = ThreadLocal.withInitial(() -> new DomainMask(0, 0));
+
+    // builds the solution of each generated puzzle in its mask, one per generating thread
+    private static final ThreadLocal<RandomSolution> GENERATOR_SOLUTIONS = ThreadLocal.withInitial(RandomSolution::new);
 
     /**
      * Constructor to initialise new grid with supplied size
@@ -22,13 +39,24 @@ public class MarupekeGrid {
      */
     public MarupekeGrid(int size)
     {
-        this.gridSize = size;
-        grid = new MPTile[this.gridSize][this.gridSize];
+        this(size, size);
+    }
+
+    /**
+     * Constructor to initialise new grid with a different number of rows and columns, used by variants of the puzzle
+     * @param rows The number of rows of the new puzzle
+     * @param columns The number of columns of the new puzzle
+     */
+    protected MarupekeGrid(int rows, int columns)
+    {
+        this.gridSize = rows;
+        this.gridColumns = columns;
+        grid = new MPTile[this.gridSize][this.gridColumns];
 
         // Set each index in the array to a fresh instance of MPTile to prevent NULL Errors
         for(int row=0; row<this.gridSize; row++)
         {
-            for(int column = 0; column < this.gridSize; column++)
+            for(int column = 0; column < this.gridColumns; column++)
             {
                 grid[row][column] = new MPTile();
             }
@@ -46,9 +74,83 @@ public class MarupekeGrid {
      */
     public MPTile getTile(int row, int column) throws ArrayIndexOutOfBoundsException
     {
+        if(row >= gridSize || column >= gridColumns)
+        {
+            throw new ArrayIndexOutOfBoundsException("Tile " + row + "," + column + " is outside the grid");
+        }
         return grid[row][column];
     }
 
+    /**
+     * Reset every tile to a blank, editable tile without allocating new tiles
+     */
+    public void reset()
+    {
+        reset(gridSize, gridColumns);
+    }
+
+    /**
+     * Reinitialise the grid as a blank square grid of the supplied size, reusing the existing tiles
+     * @param size The new size of the grid, no bigger than the size the grid was created with
+     * @throws IllegalArgumentException if the grid is too small for the new size
+     */
+    public void reset(int size) throws IllegalArgumentException
+    {
+        reset(size, size);
+    }
+
+    /**
+     * Reinitialise the grid as a blank grid of the supplied dimensions, reusing the existing tiles. Listeners
+     * are not told about each tile, they should treat a reset grid as a new grid.
+     * @param rows The new number of rows, no more than the grid was created with
+     * @param columns The new number of columns, no more than the grid was created with
+     * @throws IllegalArgumentException if the grid is too small for the new dimensions
+     */
+    public void reset(int rows, int columns) throws IllegalArgumentException
+    {
+        if(rows < 0 || columns < 0 || rows > getRowCapacity() || columns > getColumnCapacity())
+        {
+            throw new IllegalArgumentException("Cannot reset a " + getRowCapacity() + "x" + getColumnCapacity() +
+                    " grid to " + rows + "x" + columns);
+        }
+
+        this.gridSize = rows;
+        this.gridColumns = columns;
+
+        for(int row = 0; row < rows; row++)
+        {
+            for(int column = 0; column < columns; column++)
+            {
+                grid[row][column].reset();
+            }
+        }
+
+        blankTiles = rows * columns;
+        if(illegalState != null)
+        {
+            //a blank grid has no illegal tiles
+            illegalState = new boolean[gridSize][gridColumns];
+        }
+    }
+
+    /**
+     * Set the mark and editable state of a tile whether or not it is currently editable, used to set up a
+     * grid from a saved or received state
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark The mark to give the tile
+     * @param editable The editable state to give the tile
+     * @throws ArrayIndexOutOfBoundsException if the tile is outside the grid
+     */
+    public void reinitializeTile(int row, int column, Mark mark, boolean editable) throws ArrayIndexOutOfBoundsException
+    {
+        MPTile tile = getTile(row, column);
+        Mark oldMark = tile.getMark();
+
+        tile.reset(mark, editable);
+        tileChanged(row, column, oldMark);
+    }
+
     /**
      * Sets the tile at the specified index to the supplied mark if the tile is editable
      * @param row The row index of the tile on the grid
@@ -65,33 +167,74 @@ public class MarupekeGrid {
         }
         catch(ArrayIndexOutOfBoundsException boundsException)
         {
+            GridMetrics.markRequest(false);
             return false;
         }
 
 
         if(!tile.isEditable())
         {
+            GridMetrics.markRequest(false);
             return false;
         }
 
+        Mark oldMark = tile.getMark();
+
         switch (mark)
         {
             case BLANK:
                 unmarkTile(tile);
-                return true;
+                break;
 
             case CROSS:
                 markTileCross(tile);
-                return true;
+                break;
 
             case NOUGHT:
                 markTileNought(tile);
-                return true;
+                break;
 
             default:
+                GridMetrics.markRequest(false);
                 return false;
         }
 
+        GridMetrics.markRequest(true);
+        tileChanged(row, column, oldMark);
+        return true;
+    }
+
+    /**
+     * Register a listener to be told about tile changes made through this grid, changes made directly
+     * to a tile from getTile() or getGrid() are not seen
+     * @param listener The listener to add
+     */
+    public void addGridListener(GridListener listener)
+    {
+        if(illegalState == null)
+        {
+            //first listener, record the current legality so later changes can be compared against it
+            illegalState = new boolean[gridSize][gridColumns];
+            for(Tuple problemTile : illegalities())
+            {
+                illegalState[(int)problemTile.first][(int)problemTile.second] = true;
+            }
+        }
+        listeners.add(listener);
+    }
+
+    /**
+     * Stop a listener being told about tile changes
+     * @param listener The listener to remove
+     */
+    public void removeGridListener(GridListener listener)
+    {
+        listeners.remove(listener);
+
+        if(listeners.isEmpty())
+        {
+            illegalState = null;
+        }
     }
 
     /**
@@ -142,7 +285,9 @@ public class MarupekeGrid {
         try
         {
             MPTile tile = getTile(row, column);
+            Mark oldMark = tile.getMark();
             tile.setMark(mark);
+            tileChanged(row, column, oldMark);
             return true;
         }
         catch (ArrayIndexOutOfBoundsException boundsException)
@@ -162,8 +307,10 @@ public class MarupekeGrid {
     private boolean setGrid(int row, int column, boolean newEditableState, Mark mark) {
         try {
             MPTile tile = getTile(row, column);
+            Mark oldMark = tile.getMark();
             tile.setMark(mark);
             tile.setEditable(newEditableState);
+            tileChanged(row, column, oldMark);
             return true;
         }
         catch(ArrayIndexOutOfBoundsException boundsException)
@@ -183,7 +330,7 @@ public class MarupekeGrid {
 
         for(int row = 0; row < gridSize; row++)
         {
-            for(int column = 0; column < gridSize; column++)
+            for(int column = 0; column < gridColumns; column++)
             {
                 boardString += getTile(row, column).toString();
             }
@@ -210,13 +357,14 @@ public class MarupekeGrid {
      */
     public ArrayList<Tuple> illegalities()
     {
+        GridMetrics.ValidationEvent event = GridMetrics.beginValidation();
         ArrayList<Tuple> illegalTiles = new ArrayList<>();
         Tuple problemTile;
         blankTiles = 0;
 
         for(int row = 0; row < gridSize; row++)
         {
-            for(int column = 0; column < gridSize; column++)
+            for(int column = 0; column < gridColumns; column++)
             {
                 MPTile tile = getTile(row, column);
 
@@ -231,9 +379,7 @@ public class MarupekeGrid {
                 }
 
 
-                if(     horizontalCheck(row, column) ||
-                        verticalCheck(row, column)   ||
-                        diagonalCheck(row, column)   )
+                if(tripleCheck(row, column))
                 {
                     //print("prob: " + row + " " + column);
                     problemTile = new Tuple(row, column);
@@ -242,9 +388,96 @@ public class MarupekeGrid {
 
             }
         }
+
+        GridMetrics.endValidation(event, gridSize * gridColumns, illegalTiles.size(), blankTiles);
         return illegalTiles;
     }
 
+    /**
+     * Notify the listeners that a tile may have changed, along with any tiles whose legality changed as a result
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param oldMark The mark the tile had before the change
+     */
+    private void tileChanged(int row, int column, Mark oldMark)
+    {
+        Mark newMark = getTile(row, column).getMark();
+
+        if(listeners.isEmpty() || oldMark == newMark)
+        {
+            return;
+        }
+
+        for(GridListener listener : listeners)
+        {
+            listener.tileChanged(row, column, oldMark, newMark);
+        }
+
+        updateLegality(row, column);
+    }
+
+    /**
+     * Recheck the legality of every tile that a change to the supplied tile could affect. Only the tile
+     * and its 8 neighbours can be the middle of a triple that includes the tile, so no other tile needs checking.
+     * Variants with different rules override this to check the tiles their rules can affect.
+     * @param row The row index of the changed tile
+     * @param column The column index of the changed tile
+     */
+    protected void updateLegality(int row, int column)
+    {
+        for(int r = Math.max(0, row - 1); r <= Math.min(gridSize - 1, row + 1); r++)
+        {
+            for(int c = Math.max(0, column - 1); c <= Math.min(gridColumns - 1, column + 1); c++)
+            {
+                setLegality(r, c, tileIllegal(r, c));
+            }
+        }
+    }
+
+    /**
+     * Record the legality of a tile, notifying the listeners if it has changed
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param illegal True if the tile now breaks the rules, false if not
+     */
+    protected final void setLegality(int row, int column, boolean illegal)
+    {
+        if(illegal != illegalState[row][column])
+        {
+            illegalState[row][column] = illegal;
+            for(GridListener listener : listeners)
+            {
+                listener.legalityChanged(row, column, illegal);
+            }
+        }
+    }
+
+    /**
+     * Checks whether a single tile would be reported by illegalities()
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return True if the tile is marked and is the middle of three matching marks, false if not
+     */
+    private boolean tileIllegal(int row, int column)
+    {
+        MPTile tile = getTile(row, column);
+
+        return !solidTileCheck(tile) && !blankTileCheck(tile) && tripleCheck(row, column);
+    }
+
+    /**
+     * Checks whether the tile is the middle of three matching marks in any direction
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @return True if the tile and the tiles either side of it in any direction have the same mark
+     */
+    private boolean tripleCheck(int row, int column)
+    {
+        return  horizontalCheck(row, column) ||
+                verticalCheck(row, column)   ||
+                diagonalCheck(row, column);
+    }
+
     /**
      * Checks if supplied tile is marked as BLANK
      * @param tile The tile to check
@@ -332,23 +565,18 @@ public class MarupekeGrid {
                              int rowOffset2, int columnOffset2)
     {
 
-        MPTile tile;
-        MPTile firstTile;
-        MPTile secondTile;
-
         //remember that adding a minus value will have the effect of subtraction
-        try {
-            tile = getTile(row, column);
-            firstTile = getTile(row + rowOffset, column + columnOffset);
-            secondTile = getTile(row + rowOffset2, column + columnOffset2);
-        }
-        catch (ArrayIndexOutOfBoundsException boundsException)
+        //if a tile does not have a tile within the supplied offsets then we don't need to keep
+        //checking if its legal
+        if(!inGrid(row + rowOffset, column + columnOffset) || !inGrid(row + rowOffset2, column + columnOffset2))
         {
-            //if a tile does not have a tile within the supplied offsets then we don't need to keep
-            //checking if its legal
             return false;
         }
 
+        MPTile tile = getTile(row, column);
+        MPTile firstTile = getTile(row + rowOffset, column + columnOffset);
+        MPTile secondTile = getTile(row + rowOffset2, column + columnOffset2);
+
         //return true if the mark of firstTile and secondTile are equal mark of tile
         //else false
 
@@ -357,6 +585,17 @@ public class MarupekeGrid {
 
     }
 
+    /**
+     * Checks whether an index is inside the current dimensions of the grid
+     * @param row The row index
+     * @param column The column index
+     * @return True if the index is a tile of the grid, false if not
+     */
+    private boolean inGrid(int row, int column)
+    {
+        return row >= 0 && row < gridSize && column >= 0 && column < gridColumns;
+    }
+
     /**
      * Returns whether the puzzle is complete or not, a legal puzzle with no blank tiles is complete
      * @return True if complete, false if not
@@ -367,7 +606,7 @@ public class MarupekeGrid {
     }
 
     /**
-     * Get the puzzle grid
+     * Get the puzzle grid, for a grid that has been reset to a smaller size the array is bigger than the grid
      * @return The 2d array that represents the puzzle grid
      */
     public MPTile[][] getGrid() {
@@ -375,27 +614,150 @@ public class MarupekeGrid {
     }
 
     /**
-     * Returns the size of the puzzle grid
+     * Returns the size of the puzzle grid, the number of rows for grids that are not square
      * @return the size of the puzzle grid
      */
     public int getSize() {
         return gridSize;
     }
 
+    /**
+     * Returns the number of columns of the puzzle grid, the same as getSize() for square grids
+     * @return the number of columns of the puzzle grid
+     */
+    public int getColumns() {
+        return gridColumns;
+    }
+
+    /**
+     * Returns the rule the puzzle is checked with, no three in a row and no wrapping for a plain grid
+     * @return the rule of the puzzle
+     */
+    public RunRule getRule() {
+        return STANDARD_RULE;
+    }
+
+    /**
+     * Returns the number of rows the grid can be reset to
+     * @return the row capacity of the grid
+     */
+    public int getRowCapacity() {
+        return grid.length;
+    }
+
+    /**
+     * Returns the number of columns the grid can be reset to
+     * @return the column capacity of the grid
+     */
+    public int getColumnCapacity() {
+        return grid.length == 0 ? 0 : grid[0].length;
+    }
+
+    /**
+     * Create an independent copy of the grid with the same marks and editable states, listeners are not copied
+     * @return The copy of the grid
+     */
+    public MarupekeGrid copy() {
+        MarupekeGrid copy = new MarupekeGrid(gridSize, gridColumns);
+        copyTilesTo(copy);
+        return copy;
+    }
+
+    /**
+     * Create a blank grid of the same kind as this one, checked with the same rules, for holding a copy of
+     * this grid made from a snapshot. It only reads state that never changes, so any thread can call it.
+     * @param rows The number of rows of the new grid
+     * @param columns The number of columns of the new grid
+     * @return The blank grid
+     */
+    protected MarupekeGrid createBlank(int rows, int columns) {
+        return new MarupekeGrid(rows, columns);
+    }
+
+    /**
+     * Copy the mark and editable state of every tile onto a grid of the same dimensions
+     * @param target The grid to copy the tiles onto
+     */
+    protected void copyTilesTo(MarupekeGrid target) {
+        for(int row=0; row<getSize(); row++) {
+            for(int column=0; column<getColumns(); column++) {
+                MPTile tile = getTile(row, column);
+                target.setGrid(row, column, tile.isEditable(), tile.getMark());
+            }
+        }
+    }
+
     /**
      * Set all tiles on the grid to blank
      */
     public void clearGrid() {
         for(int row=0; row<getSize(); row++) {
-            for(int column=0; column<getSize(); column++) {
+            for(int column=0; column<getColumns(); column++) {
                 setGrid(row, column, Mark.BLANK);
             }
         }
     }
 
     /**
-     * Factory method that can generate a random legal puzzle according to the supplied parameters,
-     * the sum of numX and numO must not exceed half the number of grid tiles
+     * Put a mark on a blank tile of a puzzle being generated as a given the user cannot change
+     * @param domain The marks each tile can still take, updated with the new mark
+     * @param index The index (row * columns + column) of the tile
+     * @param mark The mark to give the tile
+     */
+    private void placeGiven(DomainMask domain, int index, Mark mark)
+    {
+        int row = index / gridColumns;
+        int column = index % gridColumns;
+
+        domain.place(row, column, (byte) mark.ordinal());
+        setGrid(row, column, false, mark);
+    }
+
+    /**
+     * Give a random selection of the tiles holding a mark in the solution of a puzzle being generated that mark,
+     * as givens the user cannot change
+     * @param domain The board holding the solution
+     * @param mark CROSS or NOUGHT
+     * @param count The number of tiles to give the mark, all of them if the solution has fewer
+     * @param rand The generator to choose tiles with
+     */
+    private void revealGivens(DomainMask domain, Mark mark, int count, Random rand)
+    {
+        byte cell = (byte) mark.ordinal();
+        int remaining = 0;
+        int given = 0;
+
+        for(int index = 0; index < gridSize * gridColumns; index++)
+        {
+            if(domain.markAt(index / gridColumns, index % gridColumns) == cell)
+            {
+                remaining++;
+            }
+        }
+
+        //each tile is chosen with the chance that leaves exactly count chosen at the end
+        for(int index = 0; index < gridSize * gridColumns && given < count; index++)
+        {
+            if(domain.markAt(index / gridColumns, index % gridColumns) != cell)
+            {
+                continue;
+            }
+
+            if(rand.nextInt(remaining) < count - given)
+            {
+                setGrid(index / gridColumns, index % gridColumns, false, mark);
+                given++;
+            }
+            remaining--;
+        }
+    }
+
+    /**
+     * Factory method that can generate a random puzzle with at least one solution according to the supplied
+     * parameters, the sum of numX and numO must not exceed half the number of grid tiles. The solids are placed
+     * first, then the rest of the board is filled with a random solution and numX of its crosses and numO of its
+     * noughts are kept as the marks of the puzzle. The puzzle only has fewer marks if the solids leave too few
+     * blank tiles, or no solution with that many of a mark was found.
      * @param size The size of the grid
      * @param numFill The amount of solid tiles on the starting grid
      * @param numX The amount of solid tiles on the starting grid
@@ -411,41 +773,51 @@ public class MarupekeGrid {
         if (numX + numO > size * size / 2) {
             return null;
         }
-        MarupekeGrid mp = new MarupekeGrid(size);
-        Random rand = new Random();
+        return randomPuzzle(new MarupekeGrid(size), size, numFill, numX, numO);
+    }
 
-        //randomly fill some squares with solids
-        int countSolid = 0;
-        while (countSolid < numFill) {
-            if (mp.setGrid(rand.nextInt(size), rand.nextInt(size), false, Mark.SOLID)) {
-                countSolid++;
-            }
-        }
+    /**
+     * Generate a random puzzle with at least one solution in an existing grid rather than allocating a new one,
+     * the grid is reset to the supplied size first. See randomPuzzle(int, int, int, int) for the parameters.
+     * @param mp The grid to generate the puzzle in, must be able to hold the size
+     * @param size The size of the grid
+     * @param numFill The amount of solid tiles on the starting grid
+     * @param numX The amount of cross tiles on the starting grid
+     * @param numO The amount of nought tiles on the starting grid
+     * @return The supplied grid holding the generated puzzle if sum of numX and numO below half the number
+     * of grid tiles, null otherwise
+     * @throws IllegalArgumentException if the grid cannot hold the size
+     */
+    public static MarupekeGrid randomPuzzle(MarupekeGrid mp,
+                                            int size,
+                                            int numFill,
+                                            int numX,
+                                            int numO) throws IllegalArgumentException {
 
-        int countX = 0;
-        int countO = 0;
-        while(countX < numX || countO < numO) {
-            int x = rand.nextInt(size);
-            int y = rand.nextInt(size);
-            if(countX < numX && mp.setGrid(x,y,true, Mark.CROSS)) {
-                if(mp.isLegal()) {
-                    mp.setGrid(x, y, false, Mark.CROSS);
-                    countX++;
-                } else {
-                    mp.setGrid(x, y, Mark.BLANK);
-                }
+        if (numX + numO > size * size / 2) {
+            return null;
+        }
+        GridMetrics.GenerationEvent event = GridMetrics.beginGeneration();
 
-            }
-            if(countO<numO && mp.setGrid(x,y,true, Mark.NOUGHT)) {
-                if(mp.isLegal()) {
-                    mp.setGrid(x, y, false, Mark.NOUGHT);
-                    countO++;
-                } else {
-                    mp.setGrid(x, y, Mark.BLANK);
-                }
+        mp.reset(size);
+        Random rand = ThreadLocalRandom.current();
+        DomainMask domain = GENERATOR_DOMAINS.get();
+        domain.reset(size, size);
 
-            }
+        //randomly fill some squares with solids, before any marks every blank tile can take a cross
+        int countSolid = 0;
+        while (countSolid < numFill && domain.candidateCount(BoardCells.CROSS) > 0) {
+            mp.placeGiven(domain, domain.randomCandidate(BoardCells.CROSS, rand), Mark.SOLID);
+            countSolid++;
         }
+
+        //fill the rest of the mask with a random solution and keep some of its marks, so the puzzle can always be finished
+        RandomSolution solution = GENERATOR_SOLUTIONS.get();
+        solution.fill(domain, numX, numO, rand);
+        mp.revealGivens(domain, Mark.CROSS, numX, rand);
+        mp.revealGivens(domain, Mark.NOUGHT, numO, rand);
+
+        GridMetrics.endGeneration(event, size, solution.getAttempts(), solution.getRejections());
         return mp;
 
 
@@ -2,15 +2,18 @@ import java.awt.Desktop;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Optional;
-import java.util.Random;
+import java.util.concurrent.CompletableFuture;
 import javafx.application.Application;
+import javafx.application.Platform;
 import javafx.scene.Node;
 import javafx.scene.Scene;
 import javafx.scene.control.Alert;
 import javafx.scene.control.Alert.AlertType;
 import javafx.scene.control.Button;
 import javafx.scene.control.ButtonType;
+import javafx.scene.control.CheckMenuItem;
 import javafx.scene.control.Menu;
 import javafx.scene.control.MenuBar;
 import javafx.scene.control.MenuItem;
@@ -27,15 +30,63 @@ public class MarupekeGridFX extends Application {
     private BorderPane root = new BorderPane();
     private MenuBar menuBar = new MenuBar();
     private Menu fileMenu = new Menu("File");
+    private Menu viewMenu = new Menu("View");
     private ArrayList<MenuItem> fileMenuItems = new ArrayList<>();
     private GridPane playArea;
 
+    //the button for each tile, indexed [row][column]
+    private Button[][] buttons;
+    //grids bigger than this are drawn on a canvas since a button per tile becomes too slow
+    private static final int CANVAS_THRESHOLD = 30;
+    private CanvasBoard canvasBoard;
+    //set from the view menu to draw every grid on the canvas whatever its size
+    private boolean drawOnCanvas = false;
+
 
     private Boolean gameInProgress = true;
 
     //gameInstance
     private MarupekeGrid game;
 
+    //puzzles generated in the background so new games don't block the UI
+    private PuzzlePool puzzlePool;
+
+    //the puzzle being generated for the latest new game when the pool was empty, null if none
+    private CompletableFuture<MarupekeGrid> pendingGame;
+
+    //checks the puzzle in the background so the UI never waits on a scan of the grid
+    private ValidationService validationService;
+
+    //which tiles of the current game are illegal, kept up to date by the highlighter
+    private boolean[][] illegalTiles;
+
+    //once the user has checked the puzzle the highlights follow every change they make
+    private boolean showingHighlights = false;
+
+    //restyles only the tiles affected by a change instead of the whole grid
+    private final GridListener highlighter = new GridListener() {
+        @Override
+        public void tileChanged(int row, int column, Mark oldMark, Mark newMark) {
+            //any check still running is for the grid before this change, whichever board made it
+            validationService.cancelPending();
+
+            if(playArea != null) {
+                buttons[row][column].setText(newMark.toString());
+            }
+            if(showingHighlights) {
+                restyleTile(row, column);
+            }
+        }
+
+        @Override
+        public void legalityChanged(int row, int column, boolean illegal) {
+            illegalTiles[row][column] = illegal;
+            if(showingHighlights) {
+                restyleTile(row, column);
+            }
+        }
+    };
+
     /**
      * Load a new game, setup the scene and then display the scene
      * @param primaryStage
@@ -44,12 +95,12 @@ public class MarupekeGridFX extends Application {
     public void start(Stage primaryStage) {
 
 
-        game = MarupekeGrid.randomPuzzle(3, 2, 1, 1);
+        puzzlePool = new PuzzlePool(PuzzlePool.DEFAULT_WATERMARK);
+        validationService = new ValidationService();
 
         UISetUp();
 
-        playArea = getPlayArea();
-        root.setCenter(playArea);
+        showGame(MarupekeGrid.randomPuzzle(3, 2, 1, 1));
         Scene scene = new Scene(root, 550, 550);
 
         primaryStage.setTitle("Marupeke");
@@ -59,6 +110,19 @@ public class MarupekeGridFX extends Application {
 
     }
 
+    /**
+     * Stop generating puzzles in the background when the application closes
+     */
+    @Override
+    public void stop() {
+        puzzlePool.shutdown();
+        validationService.shutdown();
+
+        if(canvasBoard != null) {
+            canvasBoard.dispose();
+        }
+    }
+
     /**
      * Construct the elements of the display, menu items, etc
      */
@@ -69,6 +133,7 @@ public class MarupekeGridFX extends Application {
         MenuItem completeItem = new MenuItem("Complete?");
         MenuItem helpItem = new MenuItem("Help");
         MenuItem quitItem = new MenuItem("Quit");
+        CheckMenuItem canvasItem = new CheckMenuItem("Draw On Canvas");
 
         newGameItem.setOnAction(e -> newGame());
         completeItem.setOnAction(e -> checkCompletion());
@@ -85,10 +150,18 @@ public class MarupekeGridFX extends Application {
 
 
 
+        canvasItem.setOnAction(e -> {
+            drawOnCanvas = canvasItem.isSelected();
+            if(game != null) {
+                showBoard();
+            }
+        });
+
         fileMenu.getItems().addAll(newGameItem, completeItem, helpItem, quitItem);
+        viewMenu.getItems().add(canvasItem);
 
 
-        menuBar.getMenus().add(fileMenu);
+        menuBar.getMenus().addAll(fileMenu, viewMenu);
 
 
         root.setTop(menuBar);
@@ -102,13 +175,17 @@ public class MarupekeGridFX extends Application {
      */
     private GridPane getPlayArea() {
         GridPane playArea = new GridPane();
+        buttons = new Button[game.getSize()][game.getSize()];
 
         for(int row=0; row<game.getSize(); row++) {
             for(int column=0; column<game.getSize(); column++) {
                 MPTile tile = game.getTile(row, column);
                 Button b = new Button(tile.toString());
                 b.setMinSize(50, 50);
-                b.setOnAction(e->cycleSymbol(b));
+
+                final int tileRow = row;
+                final int tileColumn = column;
+                b.setOnAction(e->cycleSymbol(tileRow, tileColumn));
 
 
                 if(!tile.isEditable()) {
@@ -117,8 +194,10 @@ public class MarupekeGridFX extends Application {
 
                 //b.setOnAction(value);
 
-                playArea.setConstraints(b, row, column);
+                //the column is the x position so rows run down the screen as on the canvas
+                playArea.setConstraints(b, column, row);
                 playArea.getChildren().add(b);
+                buttons[row][column] = b;
             }
         }
         return playArea;
@@ -126,22 +205,24 @@ public class MarupekeGridFX extends Application {
     }
 
     /**
-     * Cycle the mark on the button that was clicked
-     * @param buttonClicked the button passed through from the click event
+     * Cycle the mark on the tile that was clicked, the button text is updated by the highlighter
+     * @param row the row index of the tile clicked
+     * @param column the column index of the tile clicked
      */
-    private void cycleSymbol(Button buttonClicked) {
+    private void cycleSymbol(int row, int column) {
 
-        if(buttonClicked.getText().equals("_")) {
-            buttonClicked.setText("x");
-            game.userMarkRequest(GridPane.getColumnIndex(buttonClicked), GridPane.getRowIndex(buttonClicked), Mark.CROSS);
-        }
-        else if(buttonClicked.getText().equals("x")) {
-            buttonClicked.setText("o");
-            game.userMarkRequest(GridPane.getColumnIndex(buttonClicked), GridPane.getRowIndex(buttonClicked), Mark.NOUGHT);
-        }
-        else if(buttonClicked.getText().equals("o")) {
-            buttonClicked.setText("_");
-            game.userMarkRequest(GridPane.getColumnIndex(buttonClicked), GridPane.getRowIndex(buttonClicked), Mark.BLANK);
+        switch (game.getTile(row, column).getMark()) {
+            case BLANK:
+                game.userMarkRequest(row, column, Mark.CROSS);
+                break;
+            case CROSS:
+                game.userMarkRequest(row, column, Mark.NOUGHT);
+                break;
+            case NOUGHT:
+                game.userMarkRequest(row, column, Mark.BLANK);
+                break;
+            default:
+                break;
         }
 
     }
@@ -152,8 +233,6 @@ public class MarupekeGridFX extends Application {
      */
     public void newGame() {
 
-        String difficulty;
-
         //check if game already in progress
         if (gameInProgress) {
             Optional<ButtonType> result = createAlert("New Game", AlertType.CONFIRMATION, "Are you sure you wish to end this game?",
@@ -165,41 +244,132 @@ public class MarupekeGridFX extends Application {
 
             createAlert("Oh No!", AlertType.INFORMATION, "Better Luck Next Time", ButtonType.OK);
         }
+        //kept so the current game can be put back if a new puzzle cannot be made
+        MarupekeGrid previousGame = game;
+        boolean previousInProgress = gameInProgress;
+
         //get rid of current game
-        root.setCenter(null);
+        clearGame();
 
         //get user to choose difficulty
         Optional<ButtonType> result = chooseDifficultyAlert();
+        Difficulty difficulty = Difficulty.fromDisplayName(result.get().getText());
 
-        switch (result.get().getText()) {
-            case "Hard":
-                difficulty = "h";
-                break;
-            case "Medium":
-                difficulty = "m";
-                break;
-            default:
-                difficulty = "e";
-                break;
+        //take a ready puzzle from the pool, only fall back to generating if the pool has run dry
+        MarupekeGrid puzzle = puzzlePool.take(difficulty);
+
+        if(puzzle != null) {
+            showGame(puzzle);
         }
+        else {
+            CompletableFuture<MarupekeGrid> generating = puzzlePool.takeAsync(difficulty);
+            pendingGame = generating;
+            generating.whenComplete((generated, failure) -> Platform.runLater(() -> {
+                //a newer game may have been asked for while this one was generated
+                if(pendingGame != generating) {
+                    return;
+                }
+                pendingGame = null;
 
-        //create new game depending on difficulty selected
-        Random r1 = new Random();
+                if(failure == null) {
+                    showGame(generated);
+                }
+                else {
+                    createAlert("Error", AlertType.ERROR,
+                            "Unable to create a new puzzle, please try again!",
+                            ButtonType.OK);
+                    restoreGame(previousGame, previousInProgress);
+                }
+            }));
+        }
+    }
 
-        //generate some random values for the number of filled tiles depending on difficulty
-        if(difficulty.equals("e")) {
-            createGame(r1.nextInt((4 - 3) + 1) + 3);
+    /**
+     * Stop showing the current puzzle and drop any puzzle still being generated for an earlier new game
+     */
+    private void clearGame() {
+        if(pendingGame != null) {
+            pendingGame.cancel(false);
+            pendingGame = null;
         }
-        else if(difficulty.equals("m")) {
-            createGame(r1.nextInt((7 - 5) + 1) + 5);
+        validationService.cancelPending();
+        if(game != null) {
+            game.removeGridListener(highlighter);
+            game = null;
         }
-        else if(difficulty.equals("h")) {
-            createGame(r1.nextInt((10 - 8) + 1) + 8);
+        root.setCenter(null);
+    }
+
+    /**
+     * Show a game again after a new game could not replace it
+     * @param previous the game that was showing, or null if there was none
+     * @param inProgress whether the game could still be played
+     */
+    private void restoreGame(MarupekeGrid previous, boolean inProgress) {
+        if(previous == null) {
+            return;
         }
+        showGame(previous);
+        gameInProgress = inProgress;
+        if(!gameInProgress) {
+            disableBoard();
+        }
+    }
 
+    /**
+     * Replace the current puzzle with the supplied one and display it on screen
+     * @param puzzle the puzzle to display
+     */
+    private void showGame(MarupekeGrid puzzle) {
+        validationService.cancelPending();
+        if(game != null) {
+            game.removeGridListener(highlighter);
+        }
+        game = puzzle;
+
+        illegalTiles = new boolean[game.getSize()][game.getSize()];
+        for(Tuple problemTileTuple : game.illegalities()) {
+            illegalTiles[(int)problemTileTuple.first][(int)problemTileTuple.second] = true;
+        }
+        showingHighlights = false;
+        gameInProgress = true;
+        game.addGridListener(highlighter);
 
-        playArea = getPlayArea();
-        root.setCenter(playArea);
+        showBoard();
+    }
+
+    /**
+     * Display the current puzzle on the canvas or as a grid of buttons, keeping its highlights and whether
+     * it can still be played
+     */
+    private void showBoard() {
+        if(drawOnCanvas || game.getSize() > CANVAS_THRESHOLD) {
+            //reuse the canvas between games rather than building a new scene graph each time
+            if(canvasBoard == null) {
+                canvasBoard = new CanvasBoard(game);
+            }
+            else {
+                canvasBoard.setGame(game);
+            }
+            canvasBoard.setDisable(false);
+            playArea = null;
+            root.setCenter(canvasBoard);
+        }
+        else {
+            playArea = getPlayArea();
+            root.setCenter(playArea);
+        }
+
+        if(showingHighlights) {
+            for(int row=0; row<game.getSize(); row++) {
+                for(int column=0; column<game.getSize(); column++) {
+                    restyleTile(row, column);
+                }
+            }
+        }
+        if(!gameInProgress) {
+            disableBoard();
+        }
     }
 
     /**
@@ -207,9 +377,7 @@ public class MarupekeGridFX extends Application {
      * @param size
      */
     public void createGame(int size) {
-        int spread = (int) Math.floor((((size*size)/2)-1)/3);
-
-        game = MarupekeGrid.randomPuzzle(size, spread, spread, spread);
+        game = PuzzlePool.generate(size);
     }
 
 
@@ -272,48 +440,102 @@ public class MarupekeGridFX extends Application {
      * Check if the puzzle is complete, if so then display well done alert, if not highlight all problem tiles
      */
     private void checkCompletion() {
+        //nothing to check while a new puzzle is being chosen or generated
+        if(game == null) {
+            return;
+        }
+        validationService.validate(game).thenAccept(this::showCompletion);
+    }
 
-        clearGridStyling();
+    /**
+     * Display the outcome of a completion check, called on the JavaFX application thread
+     * @param result the outcome of the check
+     */
+    private void showCompletion(ValidationResult result) {
+
+        if(result.isComplete()) {
+            showingHighlights = false;
+            clearGridStyling();
 
-        if(game.isPuzzleComplete()) {
-            //disable everything since the puzzle is complete
-            for(Node n : playArea.getChildren()) {
-                n.setDisable(true);
-            }
             gameInProgress = false;
+            disableBoard();
             createAlert("Finshed!", AlertType.INFORMATION, "Well Done, you finished the puzzle! Press New in the File menu to try another one.", new ButtonType(":)"));
         }
-        else if(!game.isLegal()) {
-            //create an 2d array of all the buttons because javafx doesn't seem to allow direct indexing...
-            Node[][] nodeGrid = new Node[game.getSize()][game.getSize()];
-            for(Node n : playArea.getChildren()) {
-                Integer column = GridPane.getColumnIndex(n);
-                Integer row = GridPane.getRowIndex(n);
-                nodeGrid[column][row] = n;
+        else {
+            //from now on the highlighter keeps the styling up to date one tile at a time
+            showingHighlights = true;
+
+            for(boolean[] illegalRow : illegalTiles) {
+                Arrays.fill(illegalRow, false);
+            }
+            for(Tuple problemTileTuple : result.getIllegalTiles()) {
+                illegalTiles[(int)problemTileTuple.first][(int)problemTileTuple.second] = true;
             }
 
-            //colour all illegal tiles
-            ArrayList<Tuple> illegalTiles = game.illegalities();
+            for(int row=0; row<game.getSize(); row++) {
+                for(int column=0; column<game.getSize(); column++) {
+                    restyleTile(row, column);
+                }
+            }
+        }
 
-            for(Tuple problemTileTuple : illegalTiles) {
+    }
 
-                int rowIndex = (int)problemTileTuple.first;
-                int columnIndex = (int)problemTileTuple.second;
+    /**
+     * Disable everything on the board since the puzzle is complete
+     */
+    private void disableBoard() {
+        if(playArea == null) {
+            canvasBoard.setDisable(true);
+        }
+        else {
+            for(Node n : playArea.getChildren()) {
+                n.setDisable(true);
+            }
+        }
+    }
 
-                Node n = nodeGrid[rowIndex][columnIndex];
-                n.setStyle("-fx-background-image: url('illegal.png')");
+    /**
+     * Style a single tile as illegal, unmarked or neither depending on its current state
+     * @param row the row index of the tile
+     * @param column the column index of the tile
+     */
+    private void restyleTile(int row, int column) {
+        boolean unmarked = game.getTile(row, column).getMark() == Mark.BLANK;
 
+        if(playArea == null) {
+            if(illegalTiles[row][column]) {
+                canvasBoard.highlightIllegal(row, column);
+            }
+            else if(unmarked) {
+                canvasBoard.highlightUnmarked(row, column);
+            }
+            else {
+                canvasBoard.clearHighlight(row, column);
             }
+            return;
         }
-        showUnmarked();
-
 
+        if(illegalTiles[row][column]) {
+            buttons[row][column].setStyle("-fx-background-image: url('illegal.png')");
+        }
+        else if(unmarked) {
+            buttons[row][column].setStyle("-fx-background-image: url('unmarked.png')");
+        }
+        else {
+            buttons[row][column].setStyle(null);
+        }
     }
 
     /**
      * remove all colours from the grid indicating problem tiles
      */
     public void clearGridStyling() {
+        if(playArea == null) {
+            canvasBoard.clearStyling();
+            return;
+        }
+
         for(Node n : playArea.getChildren()) {
             n.setStyle(null);
         }
@@ -323,11 +545,16 @@ public class MarupekeGridFX extends Application {
      * Colour all unmarked tiles to indicate to the user that they must be filled
      */
     public void showUnmarked() {
-        for(Node n : playArea.getChildren()) {
-            Button b = (Button)n;
+        if(playArea == null) {
+            canvasBoard.showUnmarked();
+            return;
+        }
 
-            if(b.getText().equals("_")) {
-                b.setStyle("-fx-background-image: url('unmarked.png')");
+        for(Button[] buttonRow : buttons) {
+            for(Button b : buttonRow) {
+                if(b.getText().equals("_")) {
+                    b.setStyle("-fx-background-image: url('unmarked.png')");
+                }
             }
         }
     }
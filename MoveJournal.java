@@ -0,0 +1,100 @@
+/** Records which tiles of a grid have changed since it was last drained, each tile once however many
+ * times it changed, so a sender only has to look at the tiles that moved rather than the whole grid.
+ * Recording and draining both take time proportional to the number of changed tiles.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class MoveJournal implements GridListener {
+
+    private final MarupekeGrid grid;
+
+    // indices (row * columns + column) of the changed tiles in the order they first changed
+    private final int[] changed;
+    private final boolean[] pending;
+    private int count;
+
+
+    /**
+     * Constructor to create a journal and start listening to the grid
+     * @param grid The grid to record the changes of
+     */
+    public MoveJournal(MarupekeGrid grid)
+    {
+        this.grid = grid;
+
+        //a reset grid can never be bigger than it was created, so the journal never has to grow
+        int capacity = grid.getRowCapacity() * grid.getColumnCapacity();
+        this.changed = new int[capacity];
+        this.pending = new boolean[capacity];
+
+        grid.addGridListener(this);
+    }
+
+    //public methods
+
+    @Override
+    public void tileChanged(int row, int column, Mark oldMark, Mark newMark)
+    {
+        int index = row * grid.getColumns() + column;
+
+        if(!pending[index])
+        {
+            pending[index] = true;
+            changed[count++] = index;
+        }
+    }
+
+    @Override
+    public void legalityChanged(int row, int column, boolean illegal)
+    {
+        //legality follows from the marks, a receiver works it out for itself
+    }
+
+    /**
+     * Returns the number of tiles changed since the journal was last drained
+     * @return the number of changed tiles
+     */
+    public int size()
+    {
+        return count;
+    }
+
+    /**
+     * Copy the indices of the changed tiles into an array and empty the journal
+     * @param indices The array to copy into, at least size() long
+     * @return The number of indices copied
+     */
+    public int drainTo(int[] indices)
+    {
+        int drained = count;
+
+        for(int i = 0; i < drained; i++)
+        {
+            indices[i] = changed[i];
+            pending[changed[i]] = false;
+        }
+        count = 0;
+        return drained;
+    }
+
+    /**
+     * Empty the journal without looking at the changes, used once the whole grid has been sent
+     */
+    public void clear()
+    {
+        for(int i = 0; i < count; i++)
+        {
+            pending[changed[i]] = false;
+        }
+        count = 0;
+    }
+
+    /**
+     * Stop listening to the grid
+     */
+    public void detach()
+    {
+        grid.removeGridListener(this);
+    }
+
+}
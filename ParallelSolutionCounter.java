@@ -0,0 +1,428 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/** Counts or lists the solutions of a partly filled puzzle, every way of marking the blank tiles with
+ * CROSS or NOUGHT that keeps to the rule of the grid, no three in a row for a plain MarupekeGrid. The search
+ * tree is split into fork/join tasks at each branching point near the top of the tree, so idle workers steal
+ * whole subtrees, and each task searches on its own copy of the board so no board is ever shared between
+ * threads. A tile only one mark fits on is not a branching point, the task fills it and carries on.
+ *
+ * Each mark placed is followed by filling every blank tile along its lines that only one mark still fits,
+ * and so on from those tiles, and the search backs out as soon as a blank tile fits neither mark. Without
+ * this a tile that can never be filled is only found when the search reaches it, and on large boards the
+ * search goes through every way of filling the tiles in between first. The search stops as soon as the
+ * caller's limit of solutions has been found.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class ParallelSolutionCounter {
+
+    /**
+     * Below this many branching points from the top of the tree a task searches on its own instead of
+     * splitting, giving up to 4096 tasks for idle workers to steal while each still has a large subtree
+     */
+    public static final int DEFAULT_SPLIT_DEPTH = 12;
+
+    private static final byte[] MARKS = {BoardCells.CROSS, BoardCells.NOUGHT};
+
+    private final ForkJoinPool pool;
+    private final int splitDepth;
+
+
+    /**
+     * Constructor to create a counter that runs on the common fork/join pool
+     */
+    public ParallelSolutionCounter()
+    {
+        this(ForkJoinPool.commonPool(), DEFAULT_SPLIT_DEPTH);
+    }
+
+    /**
+     * Constructor to create a counter that runs on the supplied pool
+     * @param pool The pool to run the search on
+     * @param splitDepth The number of branching points from the top of the tree below which a task stops splitting
+     */
+    public ParallelSolutionCounter(ForkJoinPool pool, int splitDepth)
+    {
+        this.pool = pool;
+        this.splitDepth = splitDepth;
+    }
+
+    //public methods
+
+    /**
+     * Count the solutions of a puzzle, stopping once the limit is reached
+     * @param grid The puzzle to solve with its own rule, it is not changed
+     * @param limit The most solutions to count, for example 2 to check a puzzle has a unique solution
+     * @return The number of solutions, no more than limit, 0 if the marks already on the grid break the rules
+     */
+    public long countSolutions(MarupekeGrid grid, long limit)
+    {
+        return search(grid, limit, null);
+    }
+
+    /**
+     * Find the solutions of a puzzle, stopping once the limit is reached
+     * @param grid The puzzle to solve with its own rule, it is not changed
+     * @param limit The most solutions to find
+     * @param solutionConsumer Given each solution as one byte per tile (see BoardCells), it is called from
+     *                         several threads at once so must be thread safe
+     * @return The number of solutions found, no more than limit
+     */
+    public long enumerateSolutions(MarupekeGrid grid, long limit, Consumer<byte[]> solutionConsumer)
+    {
+        return search(grid, limit, solutionConsumer);
+    }
+
+    //private methods
+
+    /**
+     * Run the search for the solutions of a puzzle
+     * @param grid The puzzle to solve
+     * @param limit The most solutions to find
+     * @param solutionConsumer Given each solution, may be null when only counting
+     * @return The number of solutions found, no more than limit
+     */
+    private long search(MarupekeGrid grid, long limit, Consumer<byte[]> solutionConsumer)
+    {
+        if(limit <= 0 || !grid.isLegal())
+        {
+            return 0;
+        }
+
+        GridMetrics.SolveEvent event = GridMetrics.beginSolve();
+        byte[] cells = BoardCells.snapshot(grid);
+
+        int blankCount = 0;
+        int[] blanks = new int[cells.length];
+        for(int index = 0; index < cells.length; index++)
+        {
+            if(cells[index] == BoardCells.BLANK)
+            {
+                blanks[blankCount++] = index;
+            }
+        }
+
+        Search search = new Search(grid.getSize(), grid.getColumns(), grid.getRule(),
+                Arrays.copyOf(blanks, blankCount), limit, solutionConsumer);
+        pool.invoke(new SearchTask(search, cells, 0, 0, -1));
+
+        long solutions = Math.min(search.found.get(), limit);
+        GridMetrics.endSolve(event, grid.getSize(), solutions, search.nodes.sum());
+        return solutions;
+    }
+
+    /**
+     * State shared by every task of one search, only the counters change once the search has started
+     */
+    private static class Search {
+
+        final int rows;
+        final int columns;
+        final RunRule rule;
+
+        // the blank tiles in the order they are filled
+        final int[] blanks;
+
+        final long limit;
+        final Consumer<byte[]> solutionConsumer;
+
+        // the tiles filled since each choice still to be undone, one per worker thread, a task only uses it
+        // while it runs on its own without forking
+        final ThreadLocal<int[]> trails;
+
+        final AtomicLong found = new AtomicLong();
+        final LongAdder nodes = new LongAdder();
+
+        Search(int rows, int columns, RunRule rule, int[] blanks, long limit, Consumer<byte[]> solutionConsumer)
+        {
+            this.rows = rows;
+            this.columns = columns;
+            this.rule = rule;
+            this.blanks = blanks;
+            this.limit = limit;
+            this.solutionConsumer = solutionConsumer;
+            trails = ThreadLocal.withInitial(() -> new int[rows * columns]);
+        }
+
+        /**
+         * Returns whether enough solutions have been found to stop searching
+         * @return True if the limit has been reached, false if not
+         */
+        boolean isDone()
+        {
+            return found.get() >= limit;
+        }
+
+        /**
+         * Record a solution, passing it on to the consumer if it is within the limit
+         * @param cells The solved board, copied before being passed on
+         */
+        void solutionFound(byte[] cells)
+        {
+            if(found.getAndIncrement() < limit && solutionConsumer != null)
+            {
+                solutionConsumer.accept(cells.clone());
+            }
+        }
+    }
+
+    /**
+     * Searches the subtree below a partly filled board, the task owns its board so it can fill it in place
+     */
+    private class SearchTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Search search;
+        private final byte[] cells;
+        private final int level;
+        private final int splits;
+        private final int placed;
+
+        // positions visited by this task, added to the shared count once at the end
+        private long nodes;
+
+        // the worker's trail while the task runs and the number of tiles on it
+        private int[] trail;
+        private int trailSize;
+
+        /**
+         * Constructor to create a task
+         * @param search The search the task is part of
+         * @param cells The board, owned by the task from now on
+         * @param level The position in the search order of the next blank tile to fill, tiles later in the
+         *              order may already be filled
+         * @param splits The number of branching points above the task
+         * @param placed The tile the task was split on, whose lines still have to be followed, -1 for none
+         */
+        SearchTask(Search search, byte[] cells, int level, int splits, int placed)
+        {
+            this.search = search;
+            this.cells = cells;
+            this.level = level;
+            this.splits = splits;
+            this.placed = placed;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if(search.isDone())
+            {
+                return;
+            }
+
+            trail = search.trails.get();
+            trailSize = 0;
+            if(placed >= 0)
+            {
+                trail[trailSize++] = placed;
+                if(!propagate(0))
+                {
+                    search.nodes.add(nodes);
+                    return;
+                }
+            }
+
+            int next = nextBlank(level);
+            while(splits < splitDepth && next < search.blanks.length)
+            {
+                int index = search.blanks[next];
+                boolean crossFits = fits(index, BoardCells.CROSS);
+                boolean noughtFits = fits(index, BoardCells.NOUGHT);
+
+                if(crossFits && noughtFits)
+                {
+                    split(next);
+                    search.nodes.add(nodes);
+                    return;
+                }
+
+                //only one mark fits, so there is nothing to split and this task carries on with it
+                if(!crossFits && !noughtFits || !place(index, crossFits ? BoardCells.CROSS : BoardCells.NOUGHT))
+                {
+                    search.nodes.add(nodes);
+                    return;
+                }
+                next = nextBlank(next + 1);
+            }
+
+            solve(next);
+            search.nodes.add(nodes);
+        }
+
+        /**
+         * Create a subtask for each mark of a blank tile both marks fit on and run them in parallel, the first
+         * subtask takes over this task's board so only one copy is made
+         * @param next The position in the search order of the tile to split on
+         */
+        private void split(int next)
+        {
+            int index = search.blanks[next];
+            byte[] child = cells.clone();
+
+            cells[index] = BoardCells.CROSS;
+            child[index] = BoardCells.NOUGHT;
+            nodes += 2;
+            invokeAll(new SearchTask(search, cells, next + 1, splits + 1, index),
+                    new SearchTask(search, child, next + 1, splits + 1, index));
+        }
+
+        /**
+         * Depth first search of the rest of the tree on this thread, filling the board in place
+         * @param next The position in the search order of the next blank tile to fill
+         */
+        private void solve(int next)
+        {
+            if(search.isDone())
+            {
+                return;
+            }
+
+            next = nextBlank(next);
+            if(next == search.blanks.length)
+            {
+                search.solutionFound(cells);
+                return;
+            }
+
+            int index = search.blanks[next];
+            int choice = trailSize;
+
+            for(byte mark : MARKS)
+            {
+                if(fits(index, mark))
+                {
+                    if(place(index, mark))
+                    {
+                        solve(next + 1);
+                    }
+                    undo(choice);
+                }
+            }
+        }
+
+        /**
+         * Put a mark on a blank tile and fill the tiles it leaves only one mark for
+         * @param index The index of the tile
+         * @param mark The mark, it must fit the tile
+         * @return True if every blank tile still fits a mark, false if the search has to back out
+         */
+        private boolean place(int index, byte mark)
+        {
+            cells[index] = mark;
+            trail[trailSize++] = index;
+            nodes++;
+            return propagate(trailSize - 1);
+        }
+
+        /**
+         * Follow the lines through each tile on the trail from a position, filling every blank tile that only
+         * one mark fits, which adds it to the trail to be followed in turn. Only tiles close enough to be in a
+         * run with a changed tile can have lost a mark.
+         * @param from The position on the trail of the first tile to follow
+         * @return True if every blank tile looked at still fits a mark, false if one fits neither
+         */
+        private boolean propagate(int from)
+        {
+            int reach = search.rule.getRunLength() - 1;
+
+            for(int position = from; position < trailSize; position++)
+            {
+                int row = trail[position] / search.columns;
+                int column = trail[position] % search.columns;
+
+                for(int direction = 0; direction < BoardCells.ROW_STEPS.length; direction++)
+                {
+                    for(int step = -reach; step <= reach; step++)
+                    {
+                        int other = indexAt(row + step * BoardCells.ROW_STEPS[direction],
+                                column + step * BoardCells.COLUMN_STEPS[direction]);
+
+                        if(other < 0 || cells[other] != BoardCells.BLANK)
+                        {
+                            continue;
+                        }
+
+                        boolean crossFits = fits(other, BoardCells.CROSS);
+                        boolean noughtFits = fits(other, BoardCells.NOUGHT);
+                        if(!crossFits && !noughtFits)
+                        {
+                            return false;
+                        }
+                        if(crossFits != noughtFits)
+                        {
+                            cells[other] = crossFits ? BoardCells.CROSS : BoardCells.NOUGHT;
+                            trail[trailSize++] = other;
+                            nodes++;
+                        }
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Blank every tile filled since a position on the trail
+         * @param size The number of tiles to keep on the trail
+         */
+        private void undo(int size)
+        {
+            while(trailSize > size)
+            {
+                cells[trail[--trailSize]] = BoardCells.BLANK;
+            }
+        }
+
+        /**
+         * Returns the position in the search order of the first blank tile from a position
+         * @param next The position to start from
+         * @return The position of the blank tile, the number of blank tiles if every one is filled
+         */
+        private int nextBlank(int next)
+        {
+            while(next < search.blanks.length && cells[search.blanks[next]] != BoardCells.BLANK)
+            {
+                next++;
+            }
+            return next;
+        }
+
+        /**
+         * Returns whether a mark fits a tile under the rule of the grid
+         * @param index The index of the tile
+         * @param mark The mark
+         * @return True if the mark fits, false if not
+         */
+        private boolean fits(int index, byte mark)
+        {
+            return search.rule.canPlace(cells, search.rows, search.columns,
+                    index / search.columns, index % search.columns, mark);
+        }
+
+        /**
+         * Returns the index of a tile, following the edges round if the rule wraps
+         * @param row The row index of the tile
+         * @param column The column index of the tile
+         * @return row * columns + column, -1 if the tile is off a board that does not wrap
+         */
+        private int indexAt(int row, int column)
+        {
+            if(search.rule.isWrap())
+            {
+                return Math.floorMod(row, search.rows) * search.columns + Math.floorMod(column, search.columns);
+            }
+            if(row < 0 || row >= search.rows || column < 0 || column >= search.columns)
+            {
+                return -1;
+            }
+            return row * search.columns + column;
+        }
+    }
+
+}
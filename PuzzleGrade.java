@@ -0,0 +1,175 @@
+/** The outcome of grading a puzzle with the DifficultyGrader, which deductions a logical solver
+ * needed and how many rounds of them it took, or that the puzzle has no solution
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class PuzzleGrade {
+
+    /**
+     * The deductions the solver can make, from easiest to hardest
+     */
+    public enum Technique
+    {
+        /**
+         * Nothing needed deducing, every blank tile could be filled with a free choice
+         */
+        NONE,
+
+        /**
+         * Two matching marks next to each other, the tiles at either end must take the other mark
+         */
+        PAIRS,
+
+        /**
+         * Two matching marks with a gap between them, the gap must take the other mark
+         */
+        GAPS,
+
+        /**
+         * Trying a mark on a tile and following the pairs and gaps it forces leads to three in a row,
+         * so the tile must take the other mark
+         */
+        LOOKAHEAD,
+
+        /**
+         * A free choice made when no deduction was left later led to three in a row, so the player
+         * has to guess and backtrack
+         */
+        GUESS
+    }
+
+    // beyond this many rounds of deductions a puzzle is a level harder than its techniques suggest
+    private static final int LONG_PUZZLE_ROUNDS = 6;
+
+    private final Technique hardestTechnique;
+    private final int rounds;
+    private final int tilesDeduced;
+    private final int lookaheads;
+    private final int freeChoices;
+    private final boolean solved;
+
+
+    /**
+     * Constructor to store the outcome of grading a puzzle
+     * @param hardestTechnique The hardest deduction the solver needed
+     * @param rounds The number of rounds of deductions made
+     * @param tilesDeduced The number of blank tiles filled by deductions
+     * @param lookaheads The number of tiles filled by lookahead
+     * @param freeChoices The number of tiles filled by a free choice when no deduction was left
+     * @param solved True if every blank tile was filled without breaking the rules, false if the puzzle has no solution
+     */
+    public PuzzleGrade(Technique hardestTechnique, int rounds, int tilesDeduced, int lookaheads,
+                       int freeChoices, boolean solved)
+    {
+        this.hardestTechnique = hardestTechnique;
+        this.rounds = rounds;
+        this.tilesDeduced = tilesDeduced;
+        this.lookaheads = lookaheads;
+        this.freeChoices = freeChoices;
+        this.solved = solved;
+    }
+
+    /**
+     * Returns the hardest deduction the solver needed
+     * @return the hardest technique
+     */
+    public Technique getHardestTechnique()
+    {
+        return hardestTechnique;
+    }
+
+    /**
+     * Returns the number of rounds of deductions made, tiles decided in the same round did not depend on each other
+     * @return the number of rounds
+     */
+    public int getRounds()
+    {
+        return rounds;
+    }
+
+    /**
+     * Returns the number of blank tiles filled by deductions
+     * @return the number of tiles
+     */
+    public int getTilesDeduced()
+    {
+        return tilesDeduced;
+    }
+
+    /**
+     * Returns the number of tiles that could only be filled by lookahead
+     * @return the number of lookaheads
+     */
+    public int getLookaheads()
+    {
+        return lookaheads;
+    }
+
+    /**
+     * Returns the number of tiles filled by a free choice, where either mark was possible at the time
+     * @return the number of free choices
+     */
+    public int getFreeChoices()
+    {
+        return freeChoices;
+    }
+
+    /**
+     * Returns whether the solver filled every blank tile without breaking the rules
+     * @return True if solved, false if the puzzle has no solution
+     */
+    public boolean isSolved()
+    {
+        return solved;
+    }
+
+    /**
+     * Returns the difficulty bucket of the puzzle. Puzzles needing only pairs are easy, gaps are medium and
+     * lookahead or guessing are hard, a puzzle taking many rounds of deductions is moved up a level.
+     * A puzzle with no solution has no difficulty.
+     * @return the difficulty of the puzzle, null if it has no solution
+     */
+    public Difficulty getDifficulty()
+    {
+        if(!solved)
+        {
+            return null;
+        }
+
+        int level;
+
+        switch (hardestTechnique)
+        {
+            case NONE:
+            case PAIRS:
+                level = 0;
+                break;
+
+            case GAPS:
+                level = 1;
+                break;
+
+            default:
+                level = 2;
+                break;
+        }
+
+        if(rounds > LONG_PUZZLE_ROUNDS)
+        {
+            level++;
+        }
+        return Difficulty.values()[Math.min(level, Difficulty.values().length - 1)];
+    }
+
+    /**
+     * Return string representation of the grade
+     * @return the string representation of the grade
+     */
+    @Override
+    public String toString()
+    {
+        return (solved ? getDifficulty().toString() : "No solution") + " (" + hardestTechnique + ", " + rounds + " rounds, " +
+                tilesDeduced + " deduced, " + lookaheads + " lookaheads, " + freeChoices + " free)";
+    }
+
+}
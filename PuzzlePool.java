@@ -0,0 +1,269 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Keeps a pool of pre-generated puzzles for each difficulty, topped up by a background worker
+ * so a new game can be handed out without generating it on the calling thread. Puzzles are generated
+ * with the grid sizes of the difficulty and graded with the DifficultyGrader, and only those that grade
+ * as the difficulty are kept, so both the size and the deductions needed match it. Puzzles with no
+ * solution have no difficulty, so are never kept.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class PuzzlePool {
+
+    /**
+     * The number of puzzles kept ready for each difficulty unless told otherwise
+     */
+    public static final int DEFAULT_WATERMARK = 4;
+
+    // puzzles generated for a difficulty before giving up on one grading as it, the rarest grade for its sizes
+    // still comes up in about one puzzle in five
+    private static final int MAX_GRADING_ATTEMPTS = 128;
+
+    private final Map<Difficulty, ConcurrentLinkedQueue<MarupekeGrid>> puzzles = new EnumMap<>(Difficulty.class);
+
+    // ConcurrentLinkedQueue.size() walks the queue, so keep our own counts
+    private final Map<Difficulty, AtomicInteger> counts = new EnumMap<>(Difficulty.class);
+
+    private final ExecutorService worker;
+    private final AtomicBoolean refillScheduled = new AtomicBoolean(false);
+    private final Random rand = new Random();
+
+    // only used on the worker thread
+    private final DifficultyGrader grader = new DifficultyGrader();
+
+    private volatile int watermark;
+
+
+    /**
+     * Constructor to create the pool and start filling it in the background
+     * @param watermark The number of puzzles to keep ready for each difficulty
+     */
+    public PuzzlePool(int watermark)
+    {
+        this.watermark = Math.max(0, watermark);
+
+        for(Difficulty difficulty : Difficulty.values())
+        {
+            puzzles.put(difficulty, new ConcurrentLinkedQueue<>());
+            counts.put(difficulty, new AtomicInteger());
+        }
+
+        worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "puzzle-pool-refill");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+
+        requestRefill();
+    }
+
+    //public methods
+
+    /**
+     * Take a ready puzzle for the difficulty from the pool, never generates on the calling thread
+     * @param difficulty The difficulty of the puzzle wanted
+     * @return A puzzle of the difficulty, or null if the pool for the difficulty is currently empty
+     */
+    public MarupekeGrid take(Difficulty difficulty)
+    {
+        MarupekeGrid puzzle = puzzles.get(difficulty).poll();
+
+        if(puzzle != null)
+        {
+            counts.get(difficulty).decrementAndGet();
+        }
+
+        requestRefill();
+        return puzzle;
+    }
+
+    /**
+     * Take a puzzle for the difficulty from the pool, generating and grading one in the background the same
+     * way the pool does if the pool is empty
+     * @param difficulty The difficulty of the puzzle wanted
+     * @return A future completed with the puzzle, already completed if one was ready in the pool, or completed
+     * exceptionally with an IllegalStateException if no generated puzzle graded as the difficulty
+     */
+    public CompletableFuture<MarupekeGrid> takeAsync(Difficulty difficulty)
+    {
+        MarupekeGrid puzzle = take(difficulty);
+
+        if(puzzle != null)
+        {
+            return CompletableFuture.completedFuture(puzzle);
+        }
+
+        return CompletableFuture.supplyAsync(() -> {
+            MarupekeGrid generated = generateGraded(difficulty, new Random(), new DifficultyGrader());
+            if(generated == null)
+            {
+                throw new IllegalStateException("No puzzle graded as " + difficulty + " in "
+                        + MAX_GRADING_ATTEMPTS + " attempts");
+            }
+            return generated;
+        });
+    }
+
+    /**
+     * Returns the number of puzzles currently ready for the difficulty
+     * @param difficulty The difficulty to check
+     * @return The number of ready puzzles
+     */
+    public int available(Difficulty difficulty)
+    {
+        return counts.get(difficulty).get();
+    }
+
+    /**
+     * Returns the number of puzzles kept ready for each difficulty
+     * @return the watermark of the pool
+     */
+    public int getWatermark()
+    {
+        return watermark;
+    }
+
+    /**
+     * Change the number of puzzles kept ready for each difficulty, the pool is topped up in the background
+     * @param watermark The new number of puzzles to keep ready
+     */
+    public void setWatermark(int watermark)
+    {
+        this.watermark = Math.max(0, watermark);
+        requestRefill();
+    }
+
+    /**
+     * Stop the background worker, puzzles already in the pool can still be taken
+     */
+    public void shutdown()
+    {
+        worker.shutdownNow();
+    }
+
+    /**
+     * Generate a new puzzle with a random size within the range of the difficulty
+     * @param difficulty The difficulty of the puzzle
+     * @param rand The random number generator used to pick the size
+     * @return The generated puzzle
+     */
+    public static MarupekeGrid generate(Difficulty difficulty, Random rand)
+    {
+        return generate(difficulty.randomSize(rand));
+    }
+
+    /**
+     * Generate a new puzzle of the supplied size, with a third of the available tiles each
+     * going to solids, crosses and noughts
+     * @param size The size of the grid
+     * @return The generated puzzle
+     */
+    public static MarupekeGrid generate(int size)
+    {
+        return generate(new MarupekeGrid(size), size);
+    }
+
+    /**
+     * Generate a new puzzle of the supplied size in an existing grid, with a third of the available tiles
+     * each going to solids, crosses and noughts
+     * @param target The grid to generate the puzzle in, must be able to hold the size
+     * @param size The size of the grid
+     * @return The supplied grid holding the generated puzzle
+     */
+    public static MarupekeGrid generate(MarupekeGrid target, int size)
+    {
+        int spread = (int) Math.floor((((size*size)/2)-1)/3);
+
+        return MarupekeGrid.randomPuzzle(target, size, spread, spread, spread);
+    }
+
+    //private methods
+
+    /**
+     * Schedule a refill on the worker unless one is already waiting to run
+     */
+    private void requestRefill()
+    {
+        if(refillScheduled.compareAndSet(false, true))
+        {
+            try {
+                worker.execute(this::refill);
+            }
+            catch(RejectedExecutionException shutdownException)
+            {
+                //pool has been shut down, nothing left to top up
+            }
+        }
+    }
+
+    /**
+     * Top up every difficulty to the watermark, a puzzle at a time round robin so
+     * no difficulty has to wait for another to fill completely
+     */
+    private void refill()
+    {
+        //clear the flag first so a take during this pass schedules another one
+        refillScheduled.set(false);
+
+        boolean added = true;
+        while(added && !Thread.currentThread().isInterrupted())
+        {
+            added = false;
+
+            for(Difficulty difficulty : Difficulty.values())
+            {
+                if(counts.get(difficulty).get() < watermark)
+                {
+                    MarupekeGrid puzzle = generateGraded(difficulty, rand, grader);
+                    if(puzzle != null)
+                    {
+                        puzzles.get(difficulty).offer(puzzle);
+                        counts.get(difficulty).incrementAndGet();
+                        added = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Generate puzzles with the grid sizes of a difficulty until one grades as the difficulty. Candidates
+     * are generated in a reused grid and only the one that is kept is copied.
+     * @param difficulty The difficulty of the puzzle wanted
+     * @param rand The random number generator used to pick the size
+     * @param grader The grader used to grade the puzzles
+     * @return The puzzle, null if none graded as the difficulty in MAX_GRADING_ATTEMPTS puzzles
+     */
+    private static MarupekeGrid generateGraded(Difficulty difficulty, Random rand, DifficultyGrader grader)
+    {
+        GridArena arena = GridArena.local();
+
+        for(int attempt = 1; attempt <= MAX_GRADING_ATTEMPTS; attempt++)
+        {
+            int size = difficulty.randomSize(rand);
+            MarupekeGrid candidate = generate(arena.acquire(size), size);
+
+            //a puzzle with no solution has no difficulty, so it never matches
+            boolean matches = grader.grade(candidate).getDifficulty() == difficulty;
+            MarupekeGrid puzzle = matches ? candidate.copy() : null;
+            arena.release(candidate);
+
+            if(matches)
+            {
+                return puzzle;
+            }
+        }
+        return null;
+    }
+
+}
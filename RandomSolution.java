@@ -0,0 +1,158 @@
+import java.util.Random;
+
+/** Fills the blank tiles of a DomainMask with a random solution, so the puzzle generator can pick its marks
+ * from a board that is known to be finishable. Picking marks one tile at a time gets stuck on most boards
+ * larger than 4x4, as the diagonals leave many tiles only one mark, so the solution starts from a pattern
+ * instead.
+ *
+ * The pattern repeats xxoo along each row and shifts it two tiles on each row, so columns alternate, one
+ * diagonal goes back through xxoo a tile at a time and the other forwards, and there are never three in a
+ * row. Solids only break lines, so the pattern is a solution whatever solids the board has. It is turned,
+ * mirrored, shifted and has its marks swapped at random, then random tiles are changed to the other mark
+ * wherever the mask allows it, so solutions differ most around the solids.
+ *
+ * The tiles filled are kept in a scratch array between boards, so each thread should use its own.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class RandomSolution {
+
+    // the pattern along a line, repeating every four tiles
+    private static final byte[] PATTERN = {BoardCells.CROSS, BoardCells.CROSS, BoardCells.NOUGHT, BoardCells.NOUGHT};
+
+    // changes tried for every tile filled, both at random and again when moving tiles to a mark short of its count
+    private static final int CHANGES_PER_TILE = 4;
+
+    // the indexes (row * columns + column) of the tiles the last fill gave a mark, the only ones it changes
+    private int[] filled = new int[0];
+    private int filledCount;
+
+    private long attempts;
+    private long rejections;
+
+
+    //public methods
+
+    /**
+     * Give every blank tile of a board a mark so that no three in a row are made, with at least the supplied
+     * number of each mark if changing random tiles finds a solution that has them. Marks already on the board
+     * are kept as they are, so the result is only sure to be a solution for a board of solids.
+     * @param domain The board to fill, left holding the solution
+     * @param crosses The number of crosses wanted
+     * @param noughts The number of noughts wanted
+     * @param rand The generator used to pick the solution
+     */
+    public void fill(DomainMask domain, int crosses, int noughts, Random rand)
+    {
+        int rows = domain.getRows();
+        int columns = domain.getColumns();
+        if(filled.length < rows * columns)
+        {
+            filled = new int[rows * columns];
+        }
+        filledCount = 0;
+        attempts = 0;
+        rejections = 0;
+
+        //one of the steps through the pattern along a row and down a column is 2 and the other 1, either way round
+        boolean rowsStepTwo = rand.nextBoolean();
+        int columnStep = (rowsStepTwo ? 1 : 2) * (rand.nextBoolean() ? 1 : -1);
+        int rowStep = (rowsStepTwo ? 2 : 1) * (rand.nextBoolean() ? 1 : -1);
+        int shift = rand.nextInt(PATTERN.length);
+        boolean swap = rand.nextBoolean();
+
+        int crossCount = 0;
+        for(int index = 0; index < rows * columns; index++)
+        {
+            int row = index / columns;
+            int column = index % columns;
+
+            if(domain.markAt(row, column) == BoardCells.BLANK)
+            {
+                byte mark = PATTERN[Math.floorMod(row * rowStep + column * columnStep + shift, PATTERN.length)];
+                mark = swap ? BoardCells.opposite(mark) : mark;
+
+                domain.place(row, column, mark);
+                filled[filledCount++] = index;
+                crossCount += mark == BoardCells.CROSS ? 1 : 0;
+                attempts++;
+            }
+        }
+
+        for(int change = 0; change < CHANGES_PER_TILE * filledCount; change++)
+        {
+            int index = filled[rand.nextInt(filledCount)];
+            byte mark = domain.markAt(index / columns, index % columns);
+
+            if(change(domain, index))
+            {
+                crossCount += mark == BoardCells.CROSS ? -1 : 1;
+            }
+        }
+
+        //move tiles over to whichever mark is short, as long as the other mark keeps enough
+        int noughtCount = filledCount - crossCount;
+        for(int change = 0; change < CHANGES_PER_TILE * filledCount; change++)
+        {
+            byte from;
+            if(crossCount < crosses && noughtCount > noughts)
+            {
+                from = BoardCells.NOUGHT;
+            }
+            else if(noughtCount < noughts && crossCount > crosses)
+            {
+                from = BoardCells.CROSS;
+            }
+            else
+            {
+                break;
+            }
+
+            int index = filled[rand.nextInt(filledCount)];
+            if(domain.markAt(index / columns, index % columns) == from && change(domain, index))
+            {
+                crossCount += from == BoardCells.NOUGHT ? 1 : -1;
+                noughtCount += from == BoardCells.NOUGHT ? -1 : 1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of marks the last fill put on the board, counting every change tried
+     * @return the number of marks tried
+     */
+    public long getAttempts()
+    {
+        return attempts;
+    }
+
+    /**
+     * Returns the number of changes the last fill tried that the mask did not allow, so the tile kept its mark
+     * @return the number of marks refused
+     */
+    public long getRejections()
+    {
+        return rejections;
+    }
+
+    //private methods
+
+    /**
+     * Change a filled tile to the other mark if the mask allows it there
+     * @param domain The board
+     * @param index The index of the tile
+     * @return True if the tile was changed, false if not
+     */
+    private boolean change(DomainMask domain, int index)
+    {
+        attempts++;
+        if(domain.change(index / domain.getColumns(), index % domain.getColumns()))
+        {
+            return true;
+        }
+
+        rejections++;
+        return false;
+    }
+
+}
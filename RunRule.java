@@ -0,0 +1,483 @@
+import java.util.Arrays;
+
+/** A configurable version of the "no three in a row" rule of the puzzle. A run is an unbroken line of
+ * tiles with the same CROSS or NOUGHT mark going horizontally, vertically or along either diagonal, and a
+ * run of runLength or more tiles breaks the rule. Boards can optionally wrap round so the last tile of a
+ * row, column or diagonal is followed by the first.
+ *
+ * Every line of the board is scanned once per direction keeping just the start and length of the current
+ * run, so checking a board costs the same however long the runs are allowed to be.
+ *
+ * Tiles are reported the same way MarupekeGrid.illegalities() reports three in a row: every tile of a
+ * breaking run except the two at its ends, so the standard rule reports exactly the middle of each triple.
+ * A wrapped line where every tile has the same mark has no ends, so all of its tiles are reported, as long
+ * as the line is at least runLength tiles long.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class RunRule {
+
+    // cell values are Mark ordinals so boards can be held as a byte per tile
+    private static final byte CROSS = (byte) Mark.CROSS.ordinal();
+    private static final byte NOUGHT = (byte) Mark.NOUGHT.ordinal();
+
+    /**
+     * The number of directions a run can go in, numbered 0 right, 1 down, 2 down-right and 3 down-left
+     */
+    public static final int DIRECTION_COUNT = BoardCells.ROW_STEPS.length;
+
+    private final int runLength;
+    private final boolean wrap;
+
+
+    /**
+     * Constructor to create a rule
+     * @param runLength The shortest run that breaks the rule, must be at least 3
+     * @param wrap True if lines wrap round the edges of the board, false if not
+     * @throws IllegalArgumentException if runLength is less than 3
+     */
+    public RunRule(int runLength, boolean wrap) throws IllegalArgumentException
+    {
+        if(runLength < 3)
+        {
+            throw new IllegalArgumentException("runs shorter than 3 have no middle tiles to report");
+        }
+        this.runLength = runLength;
+        this.wrap = wrap;
+    }
+
+    /**
+     * Returns the rule used by MarupekeGrid, no three in a row and no wrapping
+     * @return the standard rule
+     */
+    public static RunRule standard()
+    {
+        return new RunRule(3, false);
+    }
+
+    //public methods
+
+    /**
+     * Returns the shortest run that breaks the rule
+     * @return the run length
+     */
+    public int getRunLength()
+    {
+        return runLength;
+    }
+
+    /**
+     * Returns whether lines wrap round the edges of the board
+     * @return True if lines wrap, false if not
+     */
+    public boolean isWrap()
+    {
+        return wrap;
+    }
+
+    /**
+     * Find every tile that breaks the rule on a board held as one Mark ordinal per tile in row order
+     * @param cells The marks of the board, index row * columns + column
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param illegal Set to true for every tile that breaks the rule and false for every other tile
+     * @return The number of tiles that break the rule
+     */
+    public int findIllegal(byte[] cells, int rows, int columns, boolean[] illegal)
+    {
+        Arrays.fill(illegal, 0, rows * columns, false);
+
+        for(int direction = 0; direction < DIRECTION_COUNT; direction++)
+        {
+            scanDirection(cells, rows, columns, direction, illegal);
+        }
+
+        int count = 0;
+        for(int index = 0; index < rows * columns; index++)
+        {
+            if(illegal[index])
+            {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find every tile that breaks the rule along the lines of a single direction
+     * @param cells The marks of the board, index row * columns + column
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param direction The direction, 0 to DIRECTION_COUNT - 1
+     * @param illegal Set to true for every tile in a breaking run in the direction and false for every other tile
+     */
+    public void findIllegal(byte[] cells, int rows, int columns, int direction, boolean[] illegal)
+    {
+        Arrays.fill(illegal, 0, rows * columns, false);
+        scanDirection(cells, rows, columns, direction, illegal);
+    }
+
+    /**
+     * Find the tiles that break the rule along the one line through a tile in a direction, without looking
+     * at the rest of the board, so a change to a tile can be rechecked in time proportional to the line
+     * @param cells The marks of the board, index row * columns + column
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param direction The direction, 0 to DIRECTION_COUNT - 1
+     * @param line Filled with the index of every tile of the line, must have room for rows * columns tiles
+     * @param illegal Set for every tile of the line to whether it is in a breaking run along the line,
+     *                other tiles are left as they are
+     * @return The number of tiles in the line
+     */
+    public int findIllegalOnLine(byte[] cells, int rows, int columns, int row, int column, int direction,
+                                 int[] line, boolean[] illegal)
+    {
+        int rowStep = BoardCells.ROW_STEPS[direction];
+        int columnStep = BoardCells.COLUMN_STEPS[direction];
+        int length;
+
+        if(wrap)
+        {
+            length = loopLength(rows, columns, rowStep, columnStep);
+            for(int step = 0; step < length; step++)
+            {
+                line[step] = Math.floorMod(row + step * rowStep, rows) * columns
+                        + Math.floorMod(column + step * columnStep, columns);
+                illegal[line[step]] = false;
+            }
+            scanLoop(cells, rows, columns, row, column, rowStep, columnStep, length, illegal);
+            return length;
+        }
+
+        //go back to the edge of the board so the line is scanned from its start
+        while(row - rowStep >= 0 && column - columnStep >= 0 && column - columnStep < columns)
+        {
+            row -= rowStep;
+            column -= columnStep;
+        }
+
+        length = 0;
+        for(int r = row, c = column; r < rows && c >= 0 && c < columns; r += rowStep, c += columnStep)
+        {
+            line[length] = r * columns + c;
+            illegal[line[length++]] = false;
+        }
+        scanLine(cells, rows, columns, row, column, rowStep, columnStep, illegal);
+        return length;
+    }
+
+    /**
+     * Check whether a mark can go on a tile without being part of a run that breaks the rule, the mark on the
+     * tile itself is ignored. A search that checks every mark it places this way only ever builds boards
+     * that keep to the rule.
+     * @param cells The marks of the board, index row * columns + column
+     * @param rows The number of rows of the board
+     * @param columns The number of columns of the board
+     * @param row The row index of the tile
+     * @param column The column index of the tile
+     * @param mark CROSS or NOUGHT
+     * @return True if the mark would not be part of any breaking run, false if it would
+     */
+    public boolean canPlace(byte[] cells, int rows, int columns, int row, int column, byte mark)
+    {
+        if(runLength == 3 && !wrap)
+        {
+            return BoardCells.canPlace(cells, rows, columns, row, column, mark);
+        }
+
+        for(int direction = 0; direction < DIRECTION_COUNT; direction++)
+        {
+            int rowStep = BoardCells.ROW_STEPS[direction];
+            int columnStep = BoardCells.COLUMN_STEPS[direction];
+
+            //a wrapped line can only be followed round to the tile before this one
+            int most = runLength - 1;
+            int loopLength = wrap ? loopLength(rows, columns, rowStep, columnStep) : 0;
+            if(wrap && loopLength - 1 < most)
+            {
+                most = loopLength - 1;
+            }
+
+            int after = matching(cells, rows, columns, row, column, rowStep, columnStep, mark, most);
+            if(after == loopLength - 1)
+            {
+                //the whole loop would be one mark, which breaks the rule if it is long enough
+                if(loopLength >= runLength)
+                {
+                    return false;
+                }
+                continue;
+            }
+
+            int before = matching(cells, rows, columns, row, column, -rowStep, -columnStep, mark, most);
+            if(before + after + 1 >= runLength)
+            {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    //private methods
+
+    /**
+     * Count how many tiles in a row going one way from a tile have a mark, stopping at the first that doesn't
+     * or at the edge of a board that does not wrap
+     */
+    private int matching(byte[] cells, int rows, int columns, int row, int column,
+                         int rowStep, int columnStep, byte mark, int most)
+    {
+        int count = 0;
+
+        for(int step = 1; step <= most; step++)
+        {
+            int r = row + step * rowStep;
+            int c = column + step * columnStep;
+
+            if(wrap)
+            {
+                r = Math.floorMod(r, rows);
+                c = Math.floorMod(c, columns);
+            }
+            else if(r < 0 || r >= rows || c < 0 || c >= columns)
+            {
+                break;
+            }
+
+            if(cells[r * columns + c] != mark)
+            {
+                break;
+            }
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the number of tiles in a loop of a wrapped board in a direction, rows and columns are one
+     * loop each and the diagonals form gcd(rows, columns) loops
+     */
+    private static int loopLength(int rows, int columns, int rowStep, int columnStep)
+    {
+        return rowStep == 0 ? columns : columnStep == 0 ? rows : rows / gcd(rows, columns) * columns;
+    }
+
+    /**
+     * Scan every line in a direction, wrapped or not as the rule says
+     */
+    private void scanDirection(byte[] cells, int rows, int columns, int direction, boolean[] illegal)
+    {
+        int rowStep = BoardCells.ROW_STEPS[direction];
+        int columnStep = BoardCells.COLUMN_STEPS[direction];
+
+        if(wrap)
+        {
+            scanWrappedLines(cells, rows, columns, rowStep, columnStep, illegal);
+        }
+        else
+        {
+            scanLines(cells, rows, columns, rowStep, columnStep, illegal);
+        }
+    }
+
+    /**
+     * Scan every line in a direction on a board that does not wrap, a line starts at each tile
+     * whose previous tile in the direction is off the board
+     */
+    private void scanLines(byte[] cells, int rows, int columns, int rowStep, int columnStep, boolean[] illegal)
+    {
+        for(int row = 0; row < rows; row++)
+        {
+            for(int column = 0; column < columns; column++)
+            {
+                int previousRow = row - rowStep;
+                int previousColumn = column - columnStep;
+
+                if(previousRow < 0 || previousColumn < 0 || previousColumn >= columns)
+                {
+                    scanLine(cells, rows, columns, row, column, rowStep, columnStep, illegal);
+                }
+            }
+        }
+    }
+
+    /**
+     * Run length scan of a single line that does not wrap
+     */
+    private void scanLine(byte[] cells, int rows, int columns, int row, int column,
+                          int rowStep, int columnStep, boolean[] illegal)
+    {
+        byte runMark = -1;
+        int runStartRow = row;
+        int runStartColumn = column;
+        int length = 0;
+
+        while(row >= 0 && row < rows && column >= 0 && column < columns)
+        {
+            byte mark = cells[row * columns + column];
+
+            if(mark == runMark)
+            {
+                length++;
+            }
+            else
+            {
+                closeRun(runMark, length, runStartRow, runStartColumn, rows, columns, rowStep, columnStep, illegal);
+                runMark = mark;
+                runStartRow = row;
+                runStartColumn = column;
+                length = 1;
+            }
+
+            row += rowStep;
+            column += columnStep;
+        }
+        closeRun(runMark, length, runStartRow, runStartColumn, rows, columns, rowStep, columnStep, illegal);
+    }
+
+    /**
+     * Scan every line in a direction on a board that wraps, where every line is a loop. Rows and columns
+     * are one loop each, the diagonals form gcd(rows, columns) loops starting from the first row.
+     */
+    private void scanWrappedLines(byte[] cells, int rows, int columns, int rowStep, int columnStep, boolean[] illegal)
+    {
+        if(rowStep == 0)
+        {
+            for(int row = 0; row < rows; row++)
+            {
+                scanLoop(cells, rows, columns, row, 0, rowStep, columnStep, columns, illegal);
+            }
+        }
+        else if(columnStep == 0)
+        {
+            for(int column = 0; column < columns; column++)
+            {
+                scanLoop(cells, rows, columns, 0, column, rowStep, columnStep, rows, illegal);
+            }
+        }
+        else
+        {
+            int loops = gcd(rows, columns);
+            int loopLength = rows / loops * columns;
+
+            for(int column = 0; column < loops; column++)
+            {
+                scanLoop(cells, rows, columns, 0, column, rowStep, columnStep, loopLength, illegal);
+            }
+        }
+    }
+
+    /**
+     * Run length scan of a single loop, starting from a tile whose mark differs from the tile before it
+     * so that no run is split across the start of the scan
+     */
+    private void scanLoop(byte[] cells, int rows, int columns, int row, int column,
+                          int rowStep, int columnStep, int loopLength, boolean[] illegal)
+    {
+        if(loopLength < runLength)
+        {
+            //even a loop of one mark is too short to break the rule
+            return;
+        }
+
+        int start = -1;
+        for(int step = 0; step < loopLength && start < 0; step++)
+        {
+            if(markAt(cells, rows, columns, row, column, rowStep, columnStep, step) !=
+                    markAt(cells, rows, columns, row, column, rowStep, columnStep, step - 1))
+            {
+                start = step;
+            }
+        }
+
+        if(start < 0)
+        {
+            //the whole loop is one mark, a run with no ends
+            byte mark = cells[row * columns + column];
+            if(mark == CROSS || mark == NOUGHT)
+            {
+                for(int step = 0; step < loopLength; step++)
+                {
+                    illegal[Math.floorMod(row + step * rowStep, rows) * columns
+                            + Math.floorMod(column + step * columnStep, columns)] = true;
+                }
+            }
+            return;
+        }
+
+        int startRow = Math.floorMod(row + start * rowStep, rows);
+        int startColumn = Math.floorMod(column + start * columnStep, columns);
+        byte runMark = -1;
+        int runStartRow = startRow;
+        int runStartColumn = startColumn;
+        int length = 0;
+
+        for(int step = 0; step < loopLength; step++)
+        {
+            int r = Math.floorMod(startRow + step * rowStep, rows);
+            int c = Math.floorMod(startColumn + step * columnStep, columns);
+            byte mark = cells[r * columns + c];
+
+            if(mark == runMark)
+            {
+                length++;
+            }
+            else
+            {
+                closeRun(runMark, length, runStartRow, runStartColumn, rows, columns, rowStep, columnStep, illegal);
+                runMark = mark;
+                runStartRow = r;
+                runStartColumn = c;
+                length = 1;
+            }
+        }
+        closeRun(runMark, length, runStartRow, runStartColumn, rows, columns, rowStep, columnStep, illegal);
+    }
+
+    /**
+     * Report every tile of a finished run except its ends if the run breaks the rule
+     */
+    private void closeRun(byte runMark, int length, int runStartRow, int runStartColumn,
+                          int rows, int columns, int rowStep, int columnStep, boolean[] illegal)
+    {
+        if(length < runLength || (runMark != CROSS && runMark != NOUGHT))
+        {
+            return;
+        }
+
+        for(int step = 1; step < length - 1; step++)
+        {
+            //floorMod keeps wrapped runs on the board, it changes nothing for runs that do not wrap
+            int r = Math.floorMod(runStartRow + step * rowStep, rows);
+            int c = Math.floorMod(runStartColumn + step * columnStep, columns);
+            illegal[r * columns + c] = true;
+        }
+    }
+
+    /**
+     * Returns the mark of the tile a number of steps along a loop
+     */
+    private static byte markAt(byte[] cells, int rows, int columns, int row, int column,
+                               int rowStep, int columnStep, int step)
+    {
+        return cells[Math.floorMod(row + step * rowStep, rows) * columns
+                + Math.floorMod(column + step * columnStep, columns)];
+    }
+
+    /**
+     * Greatest common divisor of two positive numbers
+     */
+    private static int gcd(int a, int b)
+    {
+        while(b != 0)
+        {
+            int remainder = a % b;
+            a = b;
+            b = remainder;
+        }
+        return a;
+    }
+
+}
@@ -0,0 +1,654 @@
+import com.sun.management.GarbageCollectionNotificationInfo;
+import com.sun.management.GcInfo;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.RuntimeMXBean;
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/** Command line tool that simulates many players at once, each playing its own puzzles on this JVM, to find
+ * how many concurrent players one JVM can serve. Nothing leaves the process.
+ *
+ * Usage: java TournamentSimulator [--players n] [--seconds n] [--warmup n] [--rate n] [--difficulty d]
+ *                                 [--policy solver|random] [--check-every n] [--seed n] [--platform-threads]
+ *
+ * Each player generates a puzzle of the difficulty, then makes moves with userMarkRequest at the rate given
+ * in moves per second (0 for as fast as it can), checking isPuzzleComplete() every check-every moves. The
+ * solver policy fills blank tiles with a mark that does not make three in a row, tiles with only one such
+ * mark first, and clears one of its own marks when it gets stuck. The random policy makes any move on any tile, like
+ * a player tapping about, so many of its requests are refused. A game ends when the puzzle is complete or
+ * after four moves per tile, and the player starts a new one.
+ *
+ * Players run on virtual threads when the JVM has them (Java 21 and later) and on a platform thread each
+ * otherwise, or with --platform-threads. Only moves made inside the measured window after the warmup are
+ * recorded. At the end the tool prints throughput, latency percentiles of moves and checks, the allocation
+ * rate and the garbage collections.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class TournamentSimulator {
+
+    /**
+     * How a simulated player chooses its moves
+     */
+    public enum Policy
+    {
+        /**
+         * Fill blank tiles with marks that keep the puzzle legal, clearing a mark when stuck
+         */
+        SOLVER,
+
+        /**
+         * Any mark on any tile
+         */
+        RANDOM
+    }
+
+    // moves a player makes on a puzzle for each tile before giving up on it
+    private static final int MOVES_PER_TILE = 4;
+
+    private static final Mark[] RANDOM_MARKS = {Mark.BLANK, Mark.CROSS, Mark.NOUGHT};
+
+    private final int players;
+    private final double rate;
+    private final Difficulty difficulty;
+    private final Policy policy;
+    private final int checkEvery;
+    private final long seed;
+    private final boolean platformThreads;
+
+    private volatile boolean running;
+    private volatile boolean measuring;
+
+    // the measurement window in milliseconds of JVM uptime, collections are recorded when they ran inside it
+    private volatile long windowStart = Long.MAX_VALUE;
+    private volatile long windowEnd = Long.MAX_VALUE;
+
+    // statistics, only recorded while measuring
+    private final LatencyHistogram moveLatency = new LatencyHistogram();
+    private final LatencyHistogram checkLatency = new LatencyHistogram();
+    private final LatencyHistogram collectionTimes = new LatencyHistogram();
+    private final LongAdder moves = new LongAdder();
+    private final LongAdder refusedMoves = new LongAdder();
+    private final LongAdder games = new LongAdder();
+    private final LongAdder completedGames = new LongAdder();
+
+    // bytes allocated by the player threads, only used when the JVM cannot report the total for every thread
+    private final LongAdder playerAllocation = new LongAdder();
+    private volatile boolean playerAllocationSupported = true;
+
+
+    /**
+     * Constructor to create a simulation
+     * @param players The number of players playing at once
+     * @param rate The moves each player makes a second, 0 for as fast as it can
+     * @param difficulty The difficulty of the puzzles played
+     * @param policy How the players choose their moves
+     * @param checkEvery The number of moves between checks of whether the puzzle is complete
+     * @param seed The seed of the players' random number generators
+     * @param platformThreads True to run players on platform threads even when virtual threads are available
+     */
+    public TournamentSimulator(int players, double rate, Difficulty difficulty, Policy policy,
+                               int checkEvery, long seed, boolean platformThreads)
+    {
+        this.players = Math.max(1, players);
+        this.rate = Math.max(0, rate);
+        this.difficulty = difficulty;
+        this.policy = policy;
+        this.checkEvery = Math.max(1, checkEvery);
+        this.seed = seed;
+        this.platformThreads = platformThreads;
+    }
+
+    /**
+     * Run the simulation from the command line
+     * @param args The command line arguments, see the class description
+     */
+    public static void main(String[] args)
+    {
+        int players = 1000;
+        double seconds = 30;
+        double warmup = 5;
+        double rate = 10;
+        Difficulty difficulty = Difficulty.MEDIUM;
+        Policy policy = Policy.SOLVER;
+        int checkEvery = 5;
+        long seed = new Random().nextLong();
+        boolean platformThreads = false;
+
+        try {
+            for(int i = 0; i < args.length; i++)
+            {
+                switch (args[i])
+                {
+                    case "--players":
+                        players = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--seconds":
+                        seconds = Double.parseDouble(args[++i]);
+                        break;
+
+                    case "--warmup":
+                        warmup = Double.parseDouble(args[++i]);
+                        break;
+
+                    case "--rate":
+                        rate = Double.parseDouble(args[++i]);
+                        break;
+
+                    case "--difficulty":
+                        difficulty = Difficulty.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+
+                    case "--policy":
+                        policy = Policy.valueOf(args[++i].toUpperCase(Locale.ROOT));
+                        break;
+
+                    case "--check-every":
+                        checkEvery = Integer.parseInt(args[++i]);
+                        break;
+
+                    case "--seed":
+                        seed = Long.parseLong(args[++i]);
+                        break;
+
+                    case "--platform-threads":
+                        platformThreads = true;
+                        break;
+
+                    default:
+                        throw new IllegalArgumentException(args[i]);
+                }
+            }
+        }
+        catch(IllegalArgumentException | ArrayIndexOutOfBoundsException argumentException)
+        {
+            System.err.println("Usage: java TournamentSimulator [--players n] [--seconds n] [--warmup n] [--rate n] " +
+                    "[--difficulty easy|medium|hard] [--policy solver|random] [--check-every n] [--seed n] [--platform-threads]");
+            System.exit(2);
+        }
+
+        TournamentSimulator simulator = new TournamentSimulator(players, rate, difficulty, policy, checkEvery, seed, platformThreads);
+
+        try {
+            simulator.run((long) (warmup * 1000), (long) (seconds * 1000), System.out);
+        }
+        catch(InterruptedException interrupted)
+        {
+            System.err.println("Interrupted");
+            System.exit(1);
+        }
+    }
+
+    //public methods
+
+    /**
+     * Run the simulation and print its report
+     * @param warmupMillis How long to run before measuring
+     * @param durationMillis How long to measure for
+     * @param out Where the report is printed
+     * @throws InterruptedException if interrupted while waiting for the players
+     */
+    public void run(long warmupMillis, long durationMillis, PrintStream out) throws InterruptedException
+    {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+        Method totalAllocated = totalAllocatedMethod();
+
+        running = true;
+        ExecutorService executor = playerExecutor();
+        String threadKind = runsOnVirtualThreads(executor) ? "virtual" : "platform";
+        for(int player = 0; player < players; player++)
+        {
+            long playerSeed = seed + player;
+            executor.execute(() -> play(playerSeed, threads));
+        }
+
+        Thread.sleep(warmupMillis);
+
+        List<GarbageCollectorMXBean> collectors = ManagementFactory.getGarbageCollectorMXBeans();
+        long[] collectionCounts = new long[collectors.size()];
+        long[] collectionMillis = new long[collectors.size()];
+        for(int i = 0; i < collectors.size(); i++)
+        {
+            collectionCounts[i] = collectors.get(i).getCollectionCount();
+            collectionMillis[i] = collectors.get(i).getCollectionTime();
+        }
+        NotificationListener collectionListener = this::collectionFinished;
+        for(GarbageCollectorMXBean collector : collectors)
+        {
+            if(collector instanceof NotificationEmitter)
+            {
+                ((NotificationEmitter) collector).addNotificationListener(collectionListener, null, null);
+            }
+        }
+
+        RuntimeMXBean runtime = ManagementFactory.getRuntimeMXBean();
+        long allocatedBefore = totalAllocated(threads, totalAllocated);
+        long start = System.nanoTime();
+        windowStart = runtime.getUptime();
+        measuring = true;
+
+        Thread.sleep(durationMillis);
+
+        //close the window before stopping the players so nothing from the shutdown is recorded
+        measuring = false;
+        windowEnd = runtime.getUptime();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        long allocatedAfter = totalAllocated(threads, totalAllocated);
+        for(int i = 0; i < collectors.size(); i++)
+        {
+            collectionCounts[i] = collectors.get(i).getCollectionCount() - collectionCounts[i];
+            collectionMillis[i] = collectors.get(i).getCollectionTime() - collectionMillis[i];
+        }
+
+        running = false;
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+
+        //moves that started inside the window have all been counted once the players have stopped
+        long measuredMoves = moves.sum();
+        long measuredRefusals = refusedMoves.sum();
+        long measuredGames = games.sum();
+        long measuredCompletions = completedGames.sum();
+
+        for(GarbageCollectorMXBean collector : collectors)
+        {
+            if(collector instanceof NotificationEmitter)
+            {
+                try {
+                    ((NotificationEmitter) collector).removeNotificationListener(collectionListener);
+                }
+                catch(javax.management.ListenerNotFoundException alreadyRemoved)
+                {
+                    //nothing to remove
+                }
+            }
+        }
+
+        out.printf("players: %d on %s threads  policy: %s  difficulty: %s  rate: %s moves/s each  cpus: %d%n",
+                players, threadKind, policy, difficulty, rate > 0 ? String.valueOf(rate) : "unlimited",
+                Runtime.getRuntime().availableProcessors());
+        out.printf("measured: %.1fs after %.1fs warmup%n", seconds, warmupMillis / 1000.0);
+        out.printf("throughput: %.0f moves/s (%.1f%% refused)  %.0f checks/s  %.1f games/s (%d of %d completed)%n",
+                measuredMoves / seconds, measuredMoves == 0 ? 0 : 100.0 * measuredRefusals / measuredMoves,
+                checkLatency.getCount() / seconds, measuredGames / seconds, measuredCompletions, measuredGames);
+        out.println("move latency:  " + moveLatency);
+        out.println("check latency: " + checkLatency);
+
+        if(allocatedBefore >= 0 && allocatedAfter >= 0)
+        {
+            out.printf("allocation: %.1f MB/s across all threads, %.0f bytes/move%n",
+                    (allocatedAfter - allocatedBefore) / seconds / 1e6,
+                    measuredMoves == 0 ? 0 : (double) (allocatedAfter - allocatedBefore) / measuredMoves);
+        }
+        else if(playerAllocationSupported)
+        {
+            out.printf("allocation: %.1f MB/s by player threads, %.0f bytes/move%n",
+                    playerAllocation.sum() / seconds / 1e6,
+                    measuredMoves == 0 ? 0 : (double) playerAllocation.sum() / measuredMoves);
+        }
+        else
+        {
+            out.println("allocation: not reported by this JVM");
+        }
+
+        for(int i = 0; i < collectors.size(); i++)
+        {
+            GarbageCollectorMXBean collector = collectors.get(i);
+            out.printf("gc %s: %d collections, %d ms%n", collector.getName(), collectionCounts[i], collectionMillis[i]);
+        }
+        out.println("gc durations:  " + collectionTimes);
+    }
+
+    //private methods
+
+    /**
+     * Body of each player, plays puzzles one after another until the simulation stops
+     * @param playerSeed The seed of the player's random number generator
+     * @param threads Used to measure the player's allocation when the JVM cannot report the total
+     */
+    private void play(long playerSeed, com.sun.management.ThreadMXBean threads)
+    {
+        Random rand = new Random(playerSeed);
+        long interval = rate > 0 ? (long) (1e9 / rate) : 0;
+        long nextMove = System.nanoTime() + (interval > 0 ? (long) (rand.nextDouble() * interval) : 0);
+        long allocated = -1;
+        boolean measured = false;
+
+        while(running)
+        {
+            MarupekeGrid game = PuzzlePool.generate(difficulty, rand);
+            int rows = game.getSize();
+            int columns = game.getColumns();
+            byte[] cells = BoardCells.snapshot(game);
+            int blanks = 0;
+            for(byte cell : cells)
+            {
+                if(cell == BoardCells.BLANK)
+                {
+                    blanks++;
+                }
+            }
+
+            for(int move = 1; running && move <= MOVES_PER_TILE * rows * columns; move++)
+            {
+                if(interval > 0)
+                {
+                    LockSupport.parkNanos(nextMove - System.nanoTime());
+                    nextMove += interval;
+                }
+
+                //read once so a move is either recorded in full or not at all
+                boolean wasMeasured = measured;
+                measured = measuring;
+                if(measured && !wasMeasured && allocated == -1)
+                {
+                    allocated = threads.getCurrentThreadAllocatedBytes();
+                }
+                else if(!measured && wasMeasured)
+                {
+                    addPlayerAllocation(threads, allocated);
+                    allocated = -2;
+                }
+
+                int index;
+                Mark mark;
+                if(policy == Policy.RANDOM)
+                {
+                    index = rand.nextInt(rows * columns);
+                    mark = RANDOM_MARKS[rand.nextInt(RANDOM_MARKS.length)];
+                }
+                else
+                {
+                    index = solverTile(game, cells, rand);
+                    mark = solverMark(cells, rows, columns, index, rand);
+                }
+
+                long moveStart = System.nanoTime();
+                boolean accepted = game.userMarkRequest(index / columns, index % columns, mark);
+                long moveEnd = System.nanoTime();
+                if(measured)
+                {
+                    moveLatency.record(moveEnd - moveStart);
+                    moves.increment();
+                    if(!accepted)
+                    {
+                        refusedMoves.increment();
+                    }
+                }
+
+                if(accepted)
+                {
+                    blanks += (mark == Mark.BLANK ? 1 : 0) - (cells[index] == BoardCells.BLANK ? 1 : 0);
+                    cells[index] = (byte) mark.ordinal();
+                }
+
+                if(move % checkEvery == 0 || blanks == 0)
+                {
+                    long checkStart = System.nanoTime();
+                    boolean complete = game.isPuzzleComplete();
+                    long checkEnd = System.nanoTime();
+                    if(measured)
+                    {
+                        checkLatency.record(checkEnd - checkStart);
+                    }
+
+                    if(complete)
+                    {
+                        if(measured)
+                        {
+                            completedGames.increment();
+                        }
+                        break;
+                    }
+                }
+            }
+            if(measured)
+            {
+                games.increment();
+            }
+        }
+
+        if(measured)
+        {
+            //stopped before seeing the window close
+            addPlayerAllocation(threads, allocated);
+        }
+    }
+
+    /**
+     * Add the bytes the current player thread allocated since the window opened to the total
+     * @param threads Used to measure the thread's allocation
+     * @param allocated The bytes the thread had allocated when the window opened, negative if unknown
+     */
+    private void addPlayerAllocation(com.sun.management.ThreadMXBean threads, long allocated)
+    {
+        long allocatedNow = threads.getCurrentThreadAllocatedBytes();
+        if(allocatedNow < 0)
+        {
+            playerAllocationSupported = false;
+        }
+        else if(allocated >= 0)
+        {
+            playerAllocation.add(allocatedNow - allocated);
+        }
+    }
+
+    /**
+     * Choose the tile the solver policy plays next, like a player it fills a blank tile that can only take one
+     * mark before one that could take either. When some blank tile can take neither mark it is stuck, and picks
+     * one of its own marks to clear.
+     * @param game The puzzle being played
+     * @param cells The marks of the puzzle, one byte per tile
+     * @param rand The player's random number generator
+     * @return The index of the tile
+     */
+    private static int solverTile(MarupekeGrid game, byte[] cells, Random rand)
+    {
+        int rows = game.getSize();
+        int columns = game.getColumns();
+        int start = rand.nextInt(cells.length);
+        int clearable = -1;
+        int free = -1;
+        boolean stuck = false;
+
+        for(int i = 0; i < cells.length; i++)
+        {
+            int index = (start + i) % cells.length;
+            int row = index / columns;
+            int column = index % columns;
+
+            if(cells[index] != BoardCells.BLANK)
+            {
+                if(clearable < 0 && game.getTile(row, column).isEditable())
+                {
+                    clearable = index;
+                }
+                continue;
+            }
+
+            boolean cross = BoardCells.canPlace(cells, rows, columns, row, column, BoardCells.CROSS);
+            boolean nought = BoardCells.canPlace(cells, rows, columns, row, column, BoardCells.NOUGHT);
+
+            if(cross != nought)
+            {
+                return index;
+            }
+            if(cross)
+            {
+                free = free < 0 ? index : free;
+            }
+            else
+            {
+                stuck = true;
+            }
+        }
+
+        if(!stuck && free >= 0)
+        {
+            return free;
+        }
+
+        //take back a mark and try again, a puzzle with nothing to take back just gets a refused move
+        return clearable >= 0 ? clearable : start;
+    }
+
+    /**
+     * Choose the mark the solver policy puts on a tile
+     * @param cells The marks of the puzzle, one byte per tile
+     * @param rows The number of rows of the puzzle
+     * @param columns The number of columns of the puzzle
+     * @param index The index of the tile chosen by solverTile
+     * @param rand The player's random number generator
+     * @return A mark that does not make three in a row, or BLANK to clear the tile
+     */
+    private static Mark solverMark(byte[] cells, int rows, int columns, int index, Random rand)
+    {
+        if(cells[index] != BoardCells.BLANK)
+        {
+            return Mark.BLANK;
+        }
+
+        byte first = rand.nextBoolean() ? BoardCells.CROSS : BoardCells.NOUGHT;
+        byte mark = BoardCells.canPlace(cells, rows, columns, index / columns, index % columns, first) ?
+                first : BoardCells.opposite(first);
+        return BoardCells.toMark(mark);
+    }
+
+    /**
+     * Create the executor the players run on, one virtual thread each if the JVM has them
+     * @return The executor
+     */
+    private ExecutorService playerExecutor()
+    {
+        if(!platformThreads)
+        {
+            try {
+                //looked up by name so the tool still builds and runs on JVMs without virtual threads
+                Method virtual = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                return (ExecutorService) virtual.invoke(null);
+            }
+            catch(ReflectiveOperationException noVirtualThreads)
+            {
+                //fall back to platform threads
+            }
+        }
+
+        return Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "player");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Check whether the executor runs its tasks on virtual threads, by asking a thread it runs
+     * @param executor The executor
+     * @return True if its threads are virtual, false if not or if the JVM has no virtual threads
+     * @throws InterruptedException if interrupted while waiting for the answer
+     */
+    private static boolean runsOnVirtualThreads(ExecutorService executor) throws InterruptedException
+    {
+        Method isVirtual = isVirtualMethod();
+        if(isVirtual == null)
+        {
+            return false;
+        }
+
+        try {
+            return executor.submit(() -> (boolean) isVirtual.invoke(Thread.currentThread())).get();
+        }
+        catch(ExecutionException notReported)
+        {
+            return false;
+        }
+    }
+
+    /**
+     * Returns the method telling whether a thread is virtual, if the JVM has it (Java 21 and later)
+     * @return The method, null if there is none
+     */
+    private static Method isVirtualMethod()
+    {
+        try {
+            return Thread.class.getMethod("isVirtual");
+        }
+        catch(NoSuchMethodException olderJvm)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the method reporting the bytes allocated by every thread, if the JVM has it (Java 21 and later)
+     * @return The method, null if there is none
+     */
+    private static Method totalAllocatedMethod()
+    {
+        try {
+            return com.sun.management.ThreadMXBean.class.getMethod("getTotalThreadAllocatedBytes");
+        }
+        catch(NoSuchMethodException olderJvm)
+        {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the bytes allocated by every thread so far
+     * @param threads The thread bean
+     * @param totalAllocated The method from totalAllocatedMethod, may be null
+     * @return The bytes allocated, -1 if the JVM cannot report it
+     */
+    private static long totalAllocated(com.sun.management.ThreadMXBean threads, Method totalAllocated)
+    {
+        if(totalAllocated == null)
+        {
+            return -1;
+        }
+
+        try {
+            return (long) totalAllocated.invoke(threads);
+        }
+        catch(ReflectiveOperationException | UnsupportedOperationException notReported)
+        {
+            return -1;
+        }
+    }
+
+    /**
+     * Record the duration of a garbage collection if it ran inside the measurement window. Notifications
+     * arrive some time after the collection, so the collection's own start and end times are checked
+     * @param notification The notification sent by the collector
+     * @param handback Not used
+     */
+    private void collectionFinished(Notification notification, Object handback)
+    {
+        if(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION.equals(notification.getType()))
+        {
+            GcInfo collection = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData())
+                    .getGcInfo();
+            if(collection.getStartTime() >= windowStart && collection.getEndTime() <= windowEnd)
+            {
+                collectionTimes.record(TimeUnit.MILLISECONDS.toNanos(collection.getDuration()));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+import java.util.ArrayList;
+
+/** The outcome of checking a puzzle against the rules, produced from a single scan of the grid
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class ValidationResult {
+
+    private final ArrayList<Tuple> illegalTiles;
+    private final int blankTiles;
+
+    /**
+     * Constructor to store the outcome of a check
+     * @param illegalTiles The row/column index of every tile that breaks the rules
+     * @param blankTiles The number of tiles that have not been marked
+     */
+    public ValidationResult(ArrayList<Tuple> illegalTiles, int blankTiles)
+    {
+        this.illegalTiles = illegalTiles;
+        this.blankTiles = blankTiles;
+    }
+
+    /**
+     * Check a grid, scanning it once
+     * @param grid The grid to check
+     * @return The outcome of the check
+     */
+    public static ValidationResult of(MarupekeGrid grid)
+    {
+        ArrayList<Tuple> illegalTiles = grid.illegalities();
+
+        //illegalities() recounts the blank tiles as it scans
+        return new ValidationResult(illegalTiles, grid.blankTiles);
+    }
+
+    /**
+     * Returns whether the grid broke no rules, see MarupekeGrid.isLegal()
+     * @return True if no tile breaks the rules, false if not
+     */
+    public boolean isLegal()
+    {
+        return illegalTiles.isEmpty();
+    }
+
+    /**
+     * Returns whether the grid was complete, see MarupekeGrid.isPuzzleComplete()
+     * @return True if legal with no blank tiles, false if not
+     */
+    public boolean isComplete()
+    {
+        return isLegal() && blankTiles == 0;
+    }
+
+    /**
+     * Returns the tiles that break the rules, see MarupekeGrid.illegalities()
+     * @return a list of tuples/pairs that contain row/column index of problem tiles
+     */
+    public ArrayList<Tuple> getIllegalTiles()
+    {
+        return illegalTiles;
+    }
+
+    /**
+     * Returns the number of tiles that have not been marked
+     * @return the number of blank tiles
+     */
+    public int getBlankTiles()
+    {
+        return blankTiles;
+    }
+
+}
@@ -0,0 +1,207 @@
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Function;
+import javafx.application.Platform;
+
+/** Runs checks (and later solving or hints) on a copy of a puzzle on a background thread so the UI
+ * never waits on a scan of the grid. Only the most recent request is kept, starting a new request or
+ * calling cancelPending() cancels the one before it so results for an out of date grid are never shown.
+ *
+ * The calling thread only copies the tiles into a byte per tile, in buffers that are handed back once the
+ * worker has read them, and the worker rebuilds the puzzle in a grid of its own that it reuses between
+ * requests, so a request allocates no grid or tiles.
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class ValidationService {
+
+    private final ExecutorService worker;
+
+    // where results are handed back, the JavaFX application thread unless told otherwise
+    private final Executor publisher;
+
+    // set on a snapshot byte for a tile the user can change, the Mark ordinal is in the bits below it
+    private static final byte EDITABLE_FLAG = 4;
+
+    private static final Mark[] MARKS = Mark.values();
+
+    // the request whose result is still wanted
+    private CompletableFuture<?> pending;
+
+    // snapshot buffers not in use by a request
+    private final ConcurrentLinkedQueue<byte[]> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    // only used on the worker thread, the grid requests are rebuilt in and the grid it was last made for
+    private MarupekeGrid workGrid;
+    private MarupekeGrid workSource;
+
+
+    /**
+     * Constructor for a service that publishes its results on the JavaFX application thread
+     */
+    public ValidationService()
+    {
+        this(Platform::runLater);
+    }
+
+    /**
+     * Constructor for a service that publishes its results with the supplied executor
+     * @param publisher The executor the returned futures are completed on
+     */
+    public ValidationService(Executor publisher)
+    {
+        this.publisher = publisher;
+        this.worker = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "validation-service");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    //public methods
+
+    /**
+     * Check the grid against the rules of the puzzle in the background
+     * @param game The grid to check, it is copied so the user can keep changing it
+     * @return A future completed on the publisher with the outcome of the check, cancelled if
+     * a newer request is made first
+     */
+    public CompletableFuture<ValidationResult> validate(MarupekeGrid game)
+    {
+        return submit(game, ValidationResult::of);
+    }
+
+    /**
+     * Run any operation on a copy of the grid in the background
+     * @param game The grid to run the operation on, it is copied so the user can keep changing it
+     * @param operation The operation to run on the copy, the copy is reused by later requests so the
+     *                  operation must not keep hold of it
+     * @param <T> The type of result of the operation
+     * @return A future completed on the publisher with the result of the operation, or exceptionally with
+     * whatever the operation threw, cancelled if a newer request is made first or the service has been shut down
+     */
+    public synchronized <T> CompletableFuture<T> submit(MarupekeGrid game, Function<MarupekeGrid, T> operation)
+    {
+        cancelPending();
+
+        //snapshot on the calling thread, the snapshot is the only copy of the tiles the worker touches
+        int rows = game.getSize();
+        int columns = game.getColumns();
+        byte[] snapshot = snapshot(game, rows, columns);
+        CompletableFuture<T> result = new CompletableFuture<>();
+        pending = result;
+
+        try {
+            worker.execute(() -> {
+                //skip the work entirely if the request went stale while queued
+                if(result.isDone())
+                {
+                    freeBuffers.offer(snapshot);
+                    return;
+                }
+
+                try {
+                    T value = operation.apply(rebuild(game, snapshot, rows, columns));
+                    publisher.execute(() -> result.complete(value));
+                }
+                catch(Throwable operationFailure)
+                {
+                    //an Error as well, otherwise the future never completes and the caller waits forever
+                    publisher.execute(() -> result.completeExceptionally(operationFailure));
+                }
+            });
+        }
+        catch(RejectedExecutionException shutdownException)
+        {
+            //the service has been shut down, the request will never run
+            freeBuffers.offer(snapshot);
+            cancelPending();
+        }
+
+        return result;
+    }
+
+    /**
+     * Cancel the outstanding request if there is one, its result will never be published
+     */
+    public synchronized void cancelPending()
+    {
+        if(pending != null)
+        {
+            pending.cancel(false);
+            pending = null;
+        }
+    }
+
+    /**
+     * Stop the background worker, any outstanding request is cancelled
+     */
+    public void shutdown()
+    {
+        cancelPending();
+        worker.shutdownNow();
+    }
+
+    //private methods
+
+    /**
+     * Copy the mark and editable state of every tile into a free buffer
+     * @param game The grid to copy
+     * @param rows The number of rows of the grid
+     * @param columns The number of columns of the grid
+     * @return The buffer, a byte per tile in row order
+     */
+    private byte[] snapshot(MarupekeGrid game, int rows, int columns)
+    {
+        byte[] snapshot = freeBuffers.poll();
+        if(snapshot == null || snapshot.length < rows * columns)
+        {
+            snapshot = new byte[rows * columns];
+        }
+
+        for(int row = 0; row < rows; row++)
+        {
+            for(int column = 0; column < columns; column++)
+            {
+                MPTile tile = game.getTile(row, column);
+                snapshot[row * columns + column] = (byte) (tile.getMark().ordinal() | (tile.isEditable() ? EDITABLE_FLAG : 0));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Rebuild a snapshot in the worker's grid, only making a new grid when the snapshot is of a different
+     * grid or does not fit, and hand the buffer back
+     * @param game The grid the snapshot was taken of, only used to make a grid of the same kind
+     * @param snapshot The snapshot
+     * @param rows The number of rows of the snapshot
+     * @param columns The number of columns of the snapshot
+     * @return The worker's grid holding the snapshot
+     */
+    private MarupekeGrid rebuild(MarupekeGrid game, byte[] snapshot, int rows, int columns)
+    {
+        if(workSource != game || workGrid.getRowCapacity() < rows || workGrid.getColumnCapacity() < columns)
+        {
+            workGrid = game.createBlank(rows, columns);
+            workSource = game;
+        }
+        else
+        {
+            workGrid.reset(rows, columns);
+        }
+
+        for(int index = 0; index < rows * columns; index++)
+        {
+            byte tile = snapshot[index];
+            workGrid.reinitializeTile(index / columns, index % columns, MARKS[tile & ~EDITABLE_FLAG], (tile & EDITABLE_FLAG) != 0);
+        }
+        freeBuffers.offer(snapshot);
+        return workGrid;
+    }
+
+}
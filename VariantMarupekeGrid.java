@@ -0,0 +1,217 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/** A board of the Marupeke Puzzle that can be rectangular and is checked with a configurable RunRule,
+ * for example no four in a row on a large board or lines that wrap round the edges
+ * @author Alex Draper
+ * @version 1.5
+ */
+public class VariantMarupekeGrid extends MarupekeGrid {
+
+    private final RunRule rule;
+
+    // scratch space for checking the board, reused between checks and sized for the largest the grid can be reset to
+    private final byte[] cells;
+    private final boolean[] illegal;
+
+    // kept while listeners are attached, for each tile a bit per direction set when it is in a breaking run
+    // that way, and the tiles of the lines through the last changed tile
+    private byte[] directionBits;
+    private int[][] lines;
+    private final int[] lineLengths = new int[RunRule.DIRECTION_COUNT];
+    private boolean linesValid;
+
+
+    /**
+     * Constructor to initialise a new grid with the supplied dimensions and rule
+     * @param rows The number of rows of the new puzzle
+     * @param columns The number of columns of the new puzzle
+     * @param rule The rule the puzzle is checked with
+     */
+    public VariantMarupekeGrid(int rows, int columns, RunRule rule)
+    {
+        super(rows, columns);
+        this.rule = rule;
+        this.cells = new byte[rows * columns];
+        this.illegal = new boolean[rows * columns];
+    }
+
+    //public methods
+
+    /**
+     * Register a listener to be told about tile changes made through this grid, changes made directly
+     * to a tile from getTile() or getGrid() are not seen
+     * @param listener The listener to add
+     */
+    @Override
+    public void addGridListener(GridListener listener)
+    {
+        //tiles changed while no listener was attached were not tracked
+        linesValid = false;
+        super.addGridListener(listener);
+    }
+
+    /**
+     * Clear every tile to a blank editable tile and change the dimensions of the grid without allocating
+     * @param rows The number of rows of the reset grid
+     * @param columns The number of columns of the reset grid
+     * @throws IllegalArgumentException if either dimension is negative or larger than the grid was created with
+     */
+    @Override
+    public void reset(int rows, int columns) throws IllegalArgumentException
+    {
+        super.reset(rows, columns);
+        linesValid = false;
+    }
+
+    /**
+     * Returns the rule the puzzle is checked with
+     * @return the rule of the puzzle
+     */
+    @Override
+    public RunRule getRule()
+    {
+        return rule;
+    }
+
+    /**
+     * method checks the grid for tiles with blank marks and for runs that break the rule of the puzzle
+     * @return a list of tuples/pairs that contain row/column index of problem tiles
+     */
+    @Override
+    public ArrayList<Tuple> illegalities()
+    {
+        GridMetrics.ValidationEvent event = GridMetrics.beginValidation();
+        ArrayList<Tuple> illegalTiles = new ArrayList<>();
+
+        scan();
+        for(int index = 0; index < gridSize * gridColumns; index++)
+        {
+            if(illegal[index])
+            {
+                illegalTiles.add(new Tuple(index / gridColumns, index % gridColumns));
+            }
+        }
+
+        GridMetrics.endValidation(event, gridSize * gridColumns, illegalTiles.size(), blankTiles);
+        return illegalTiles;
+    }
+
+    /**
+     * Create an independent copy of the grid with the same marks, editable states and rule, listeners are not copied
+     * @return The copy of the grid
+     */
+    @Override
+    public VariantMarupekeGrid copy()
+    {
+        VariantMarupekeGrid copy = new VariantMarupekeGrid(gridSize, gridColumns, rule);
+        copyTilesTo(copy);
+        return copy;
+    }
+
+    //protected methods
+
+    /**
+     * Create a blank grid checked with the same rule, for holding a copy of this grid made from a snapshot
+     * @param rows The number of rows of the new grid
+     * @param columns The number of columns of the new grid
+     * @return The blank grid
+     */
+    @Override
+    protected VariantMarupekeGrid createBlank(int rows, int columns)
+    {
+        return new VariantMarupekeGrid(rows, columns, rule);
+    }
+
+    /**
+     * Recheck the legality of the tiles a change can affect. A change can only start or end runs along the
+     * four lines through the tile, which may be a whole row or a wrapped loop, so only those lines are
+     * rescanned and the other directions of each tile on them are remembered from earlier scans.
+     * @param row The row index of the changed tile
+     * @param column The column index of the changed tile
+     */
+    @Override
+    protected void updateLegality(int row, int column)
+    {
+        if(!linesValid)
+        {
+            rebuildLines();
+        }
+        cells[row * gridColumns + column] = (byte) getTile(row, column).getMark().ordinal();
+
+        for(int direction = 0; direction < RunRule.DIRECTION_COUNT; direction++)
+        {
+            int[] line = lines[direction];
+            int bit = 1 << direction;
+            lineLengths[direction] = rule.findIllegalOnLine(cells, gridSize, gridColumns, row, column, direction, line, illegal);
+
+            for(int step = 0; step < lineLengths[direction]; step++)
+            {
+                int index = line[step];
+                directionBits[index] = (byte) (illegal[index] ? directionBits[index] | bit : directionBits[index] & ~bit);
+            }
+        }
+
+        for(int direction = 0; direction < RunRule.DIRECTION_COUNT; direction++)
+        {
+            for(int step = 0; step < lineLengths[direction]; step++)
+            {
+                int index = lines[direction][step];
+                setLegality(index / gridColumns, index % gridColumns, directionBits[index] != 0);
+            }
+        }
+    }
+
+    //private methods
+
+    /**
+     * Copy the marks into the scratch space, count the blank tiles and find every tile that breaks the rule
+     */
+    private void scan()
+    {
+        blankTiles = 0;
+
+        for(int row = 0; row < gridSize; row++)
+        {
+            for(int column = 0; column < gridColumns; column++)
+            {
+                Mark mark = getTile(row, column).getMark();
+                if(mark == Mark.BLANK)
+                {
+                    blankTiles++;
+                }
+                cells[row * gridColumns + column] = (byte) mark.ordinal();
+            }
+        }
+
+        rule.findIllegal(cells, gridSize, gridColumns, illegal);
+    }
+
+    /**
+     * Scan the whole board once per direction to find which directions each tile breaks the rule in
+     */
+    private void rebuildLines()
+    {
+        if(directionBits == null)
+        {
+            directionBits = new byte[cells.length];
+            lines = new int[RunRule.DIRECTION_COUNT][cells.length];
+        }
+
+        scan();
+        Arrays.fill(directionBits, (byte) 0);
+        for(int direction = 0; direction < RunRule.DIRECTION_COUNT; direction++)
+        {
+            rule.findIllegal(cells, gridSize, gridColumns, direction, illegal);
+            for(int index = 0; index < gridSize * gridColumns; index++)
+            {
+                if(illegal[index])
+                {
+                    directionBits[index] |= 1 << direction;
+                }
+            }
+        }
+        linesValid = true;
+    }
+
+}